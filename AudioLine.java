@@ -0,0 +1,59 @@
+package com.company;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+//plays a Buzzer on the default javax.sound output. Its daemon thread is the ring's consumer: it reads small chunks and
+//blocks in SourceDataLine.write(), so the line's buffer sets the pace. A short chunk is padded with silence and counted
+//as an underrun by the Buzzer
+public class AudioLine {
+    private static final int CHUNK_SAMPLES = 128;        //2.7 ms per write
+    private static final int LINE_SAMPLES = 256;         //requested line buffer, 5.3 ms, plus the ring stays under one frame
+
+    private final Buzzer buzzer;
+    private final SourceDataLine line;
+    private final short[] samples = new short[CHUNK_SAMPLES];
+    private final byte[] bytes = new byte[CHUNK_SAMPLES * 2];
+    private final Thread thread;
+    private volatile boolean running;
+
+    public AudioLine(Buzzer buzzer) throws LineUnavailableException {
+        this.buzzer = buzzer;
+        AudioFormat format = new AudioFormat(Buzzer.SAMPLE_RATE, 16, 1, true, false);
+        line = AudioSystem.getSourceDataLine(format);
+        line.open(format, LINE_SAMPLES * 2);
+        thread = new Thread(this::play, "chip8-audio");
+        thread.setDaemon(true);
+    }
+
+    public void start(){
+        running = true;
+        line.start();
+        thread.start();
+    }
+
+    private void play(){
+        while(running){
+            int n = buzzer.read(samples, CHUNK_SAMPLES);
+            for(int i = 0; i < CHUNK_SAMPLES; i++){
+                short sample = i < n ? samples[i] : 0;
+                bytes[i * 2] = (byte) sample;  //little endian
+                bytes[i * 2 + 1] = (byte) (sample >> 8);
+            }
+            line.write(bytes, 0, bytes.length);
+        }
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        thread.join();
+        line.stop();
+        line.close();
+    }
+
+    public double getBufferMillis() {  //what the line adds to Buzzer.getMaxLagMillis()
+        return line.getBufferSize() / 2 * 1000.0 / Buzzer.SAMPLE_RATE;
+    }
+}
@@ -0,0 +1,157 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class BatchRunner {  //runs many independent machines over a fork-join pool, usage: BatchRunner <rom> [options], see main()
+    private final Emulator[] instances;
+    private final CpuFault[] faults;  //per instance, a faulted instance stays where it stopped and the others go on
+
+    public BatchRunner(byte[] program, int count, boolean jit, long seed){
+        this(new RomLibrary.Image(ByteBuffer.wrap(program)), count, jit, seed);
+    }
+
+    public BatchRunner(RomLibrary.Image image, int count, boolean jit, long seed){  //every instance starts copy-on-write over image
+        instances = new Emulator[count];
+        faults = new CpuFault[count];
+        Map<String, CompiledBlock> blocks = new ConcurrentHashMap<>();  //one generated class per block for the whole batch
+        for(int i = 0; i < count; i++){
+            Emulator emulator = new Emulator();  //own memory, registers, stack, framebuffer and keypad
+            emulator.setThrottled(false);
+            if(jit){
+                emulator.setCompiler(new BlockCompiler(blocks));
+            }
+            emulator.getMemory().setTracer(Tracer.STDOUT, Tracer.OFF);
+            emulator.getMemory().setSeed(seed + i);
+            emulator.getMemory().loadImage(image);
+            instances[i] = emulator;
+        }
+    }
+
+    public long run(long cyclesPerInstance, int threads){  //runs every instance cyclesPerInstance further, returns elapsed nanos
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long start = System.nanoTime();
+            pool.invoke(new Slice(0, instances.length, cyclesPerInstance));
+            return System.nanoTime() - start;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public Emulator[] getInstances() {
+        return instances;
+    }
+
+    public CpuFault getFault(int instance) {  //null unless the instance faulted
+        return faults[instance];
+    }
+
+    public long getTotalCycles(){
+        long total = 0;
+        for(Emulator emulator : instances){
+            total += emulator.getCycles();
+        }
+        return total;
+    }
+
+    private class Slice extends RecursiveAction {  //instances [from, to), split until one instance per task
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final long cycles;
+
+        Slice(int from, int to, long cycles){
+            this.from = from;
+            this.to = to;
+            this.cycles = cycles;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from == 1){
+                if(faults[from] == null){
+                    try {
+                        instances[from].runCycles(cycles);
+                    } catch (CpuFault fault) {  //kept with the instance, one broken machine does not end the batch
+                        faults[from] = fault;
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Slice(from, middle, cycles), new Slice(middle, to, cycles));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1){
+            System.err.println("usage: BatchRunner <rom> [--instances N] [--cycles N] [--threads N] [--jit] [--seed N] [--scaling] [--library DIR|PACK]");
+            System.exit(2);
+        }
+
+        int count = 256;
+        long cycles = 1_000_000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean jit = false;
+        boolean scaling = false;
+        long seed = 0;
+        String library = null;
+        for(int i = 1; i < args.length; i++){
+            switch (args[i]){
+                case "--instances": count = Integer.parseInt(args[++i]); break;
+                case "--cycles": cycles = Long.parseLong(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--jit": jit = true; break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--scaling": scaling = true; break;
+                case "--library": library = args[++i]; break;
+                default:
+                    System.err.println("unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        RomLibrary.Image program = RomLibrary.resolve(args[0], library).image();
+
+        if(!scaling){
+            report(program, count, cycles, threads, jit, seed, 0);
+            return;
+        }
+        double single = 0;  //1, 2, 4 ... threads up to the requested count, speedup relative to one thread
+        for(int t = 1; ; t = Math.min(t * 2, threads)){
+            double rate = report(program, count, cycles, t, jit, seed, single);
+            if(t == 1){
+                single = rate;
+            }
+            if(t == threads){
+                break;
+            }
+        }
+    }
+
+    private static double report(RomLibrary.Image program, int count, long cycles, int threads, boolean jit, long seed, double single){
+        BatchRunner batch = new BatchRunner(program, count, jit, seed);
+        batch.run(Math.min(cycles, 50_000), threads);  //warm-up
+        long before = batch.getTotalCycles();
+        long elapsed = batch.run(cycles, threads);
+        double rate = (batch.getTotalCycles() - before) * 1e9 / elapsed;
+
+        String line = threads + " threads, " + count + " instances: " + (long) rate + " instructions/s";
+        if(single > 0){
+            line += String.format(" (%.2fx)", rate / single);
+        }
+        System.out.println(line);
+        for(int i = 0; i < count; i++){
+            CpuFault fault = batch.getFault(i);
+            if(fault != null){
+                System.out.println("  instance " + i + ": " + fault.getMessage() + " after " + batch.getInstances()[i].getCycles() + " instructions");
+            }
+        }
+        return rate;
+    }
+}
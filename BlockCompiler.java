@@ -0,0 +1,356 @@
+package com.company;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class BlockCompiler {  //basic-block JIT: compiles hot straight-line runs of instructions into hidden classes
+    public static final int HOT_THRESHOLD = 64;  //executions of a block start address before it gets compiled
+    public static final int MAX_BLOCK = 64;      //instructions per block
+    private static final int NOT_COMPILABLE = -1;
+
+    static final String MEMORY = "com/company/Memory";
+    static final int MEMORY_ARG = 1;   //run(Memory memory, byte[] V)
+    static final int V_ARG = 2;
+    static final int FIRST_REGISTER = 3;  //V0-VF are cached in locals 3-18 for the whole block, always 0-255
+    static final int TEMP = FIRST_REGISTER + 16;
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private final Map<String, CompiledBlock> shared;  //generated blocks by instruction words, may be shared between machines
+    private final CompiledBlock[] blocks = new CompiledBlock[4096];  //indexed by start address
+    private final int[] lengths = new int[4096];                     //instructions in blocks[address]
+    private final boolean[] timed = new boolean[4096];               //block reads or sets a timer, so it must not span a timer tick
+    private final int[] heat = new int[4096];                        //entry count until compiled, NOT_COMPILABLE when too short
+    private final int[] coverage = new int[4096];                    //number of compiled blocks containing each byte
+    private boolean compiling = true;                                //false runs installed translations only
+    private long compiled;
+
+    public BlockCompiler(){
+        this(new ConcurrentHashMap<>());
+    }
+
+    public BlockCompiler(Map<String, CompiledBlock> shared){  //machines running the same ROM can reuse each other's blocks
+        this.shared = shared;
+    }
+
+    public CompiledBlock blockAt(int address){  //compiled block starting at address, or null while it is still cold
+        return address < blocks.length ? blocks[address] : null;  //XO-CHIP code above 4 KB is interpreted
+    }
+
+    public int lengthAt(int address){
+        return lengths[address];
+    }
+
+    public boolean isTimedAt(int address){
+        return timed[address];
+    }
+
+    public void executedAt(int address, Memory memory){  //called by the interpreter at addresses without a block
+        if(address >= heat.length || !compiling){
+            return;
+        }
+        int count = heat[address];
+        if(count == NOT_COMPILABLE){
+            return;
+        }
+        if(count + 1 < HOT_THRESHOLD){
+            heat[address] = count + 1;
+            return;
+        }
+        compile(address, memory);
+    }
+
+    public void invalidate(int from, int to){  //memory in [from, to] was written
+        boolean hit = false;
+        for(int i = from; i <= to && i < coverage.length; i++){
+            hit |= coverage[i] > 0;
+        }
+        for(int i = Math.max(0, from - 1); i <= to && i < heat.length; i++){
+            if(heat[i] == NOT_COMPILABLE){
+                heat[i] = 0;  //the new code may be long enough to compile
+            }
+        }
+        if(!hit){
+            return;
+        }
+        for(int start = Math.max(0, from - MAX_BLOCK * 2 + 1); start <= to && start < blocks.length; start++){
+            if(blocks[start] != null && start + lengths[start] * 2 > from){
+                for(int i = start; i < start + lengths[start] * 2; i++){
+                    coverage[i]--;
+                }
+                blocks[start] = null;  //unreferenced hidden classes are unloaded by the GC
+                lengths[start] = 0;
+                heat[start] = 0;
+            }
+        }
+    }
+
+    public void install(RomTranslator.Translation translation){  //after loading the ROM, as loading invalidates every block
+        for(int i = 0; i < translation.getBlockCount(); i++){
+            int start = translation.starts[i];
+            if(blocks[start] != null){
+                continue;
+            }
+            blocks[start] = translation.blocks[i];
+            lengths[start] = translation.lengths[i];
+            timed[start] = translation.timed[i];
+            for(int address = start; address < start + lengths[start] * 2; address++){
+                coverage[address]++;
+            }
+        }
+    }
+
+    public boolean isCompiling() {
+        return compiling;
+    }
+
+    public void setCompiling(boolean compiling) {
+        this.compiling = compiling;
+    }
+
+    public long getCompiledCount() {
+        return compiled;
+    }
+
+    private void compile(int start, Memory memory){
+        int length = 0;
+        boolean readsTimers = false;
+        int[] opcodes = new int[MAX_BLOCK];
+        for(int address = start; length < MAX_BLOCK && address + 1 < blocks.length; address += 2){
+            int opcode = memory.read(address) << 8 | memory.read(address + 1);
+            int op = Instruction.handler(opcode);
+            if(!isStraightLine(op)){
+                break;
+            }
+            readsTimers |= readsTimers(op);
+            opcodes[length++] = opcode;
+        }
+        if(length < 2){  //nothing to gain over the interpreter
+            heat[start] = NOT_COMPILABLE;
+            return;
+        }
+
+        try {
+            char[] words = new char[length];
+            for(int i = 0; i < length; i++){
+                words[i] = (char) opcodes[i];
+            }
+            String key = new String(words);
+            CompiledBlock block = shared.get(key);
+            if(block == null){
+                byte[] bytes = generate(opcodes, length);
+                Class<?> blockClass = lookup.defineHiddenClass(bytes, true).lookupClass();
+                block = (CompiledBlock) lookup.findConstructor(blockClass, MethodType.methodType(void.class)).invoke();
+                CompiledBlock raced = shared.putIfAbsent(key, block);
+                if(raced != null){
+                    block = raced;
+                }
+            }
+            blocks[start] = block;
+            lengths[start] = length;
+            timed[start] = readsTimers;
+            for(int i = start; i < start + length * 2; i++){
+                coverage[i]++;
+            }
+            compiled++;
+        } catch (Throwable e) {
+            heat[start] = NOT_COMPILABLE;  //fall back to the interpreter for this address
+        }
+    }
+
+    static boolean isStraightLine(int op){  //instructions that neither branch, wait, nor write memory
+        switch (op){
+            case Instruction.CLS:
+            case Instruction.LD_NN:
+            case Instruction.ADD_NN:
+            case Instruction.LD_VY:
+            case Instruction.OR:
+            case Instruction.AND:
+            case Instruction.XOR:
+            case Instruction.ADD_VY:
+            case Instruction.SUB:
+            case Instruction.SHR:
+            case Instruction.SUBN:
+            case Instruction.SHL:
+            case Instruction.LD_I:
+            case Instruction.RND:
+            case Instruction.DRW:
+            case Instruction.LD_DT:
+            case Instruction.SET_DT:
+            case Instruction.SET_ST:
+            case Instruction.ADD_I:
+            case Instruction.FONT:
+            case Instruction.LOAD:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static byte[] generate(int[] opcodes, int length){
+        BytecodeWriter writer = new BytecodeWriter(BytecodeWriter.ACC_FINAL | BytecodeWriter.ACC_SUPER,
+                "com/company/GeneratedBlock", "java/lang/Object", "com/company/CompiledBlock");
+
+        BytecodeWriter.Code init = writer.method(BytecodeWriter.ACC_PUBLIC, "<init>", "()V");
+        init.aload(0)
+            .invoke(BytecodeWriter.INVOKESPECIAL, "java/lang/Object", "<init>", "()V")
+            .op(BytecodeWriter.RETURN)
+            .end(1, 1);
+
+        Instruction[] instructions = new Instruction[length];
+        int registers = 0;  //bit per V register the block touches
+        for(int i = 0; i < length; i++){
+            instructions[i] = Instruction.decode(opcodes[i]);
+            registers |= registers(instructions[i]);
+        }
+
+        BytecodeWriter.Code code = writer.method(BytecodeWriter.ACC_PUBLIC, "run", "(Lcom/company/Memory;[B)I");
+        loadRegisters(code, registers);
+        for(int i = 0; i < length; i++){
+            if(mayFault(instructions[i].op)){
+                emitAt(code, registers, i);
+            }
+            emit(code, instructions[i]);
+        }
+        storeRegisters(code, registers);
+        code.aload(MEMORY_ARG).iconst(length * 2).invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "advance", "(I)V");
+        code.iconst(length).op(BytecodeWriter.IRETURN).end(6, TEMP + 1);
+        return writer.toByteArray();
+    }
+
+    static void loadRegisters(BytecodeWriter.Code code, int registers){  //V registers into locals
+        for(int r = 0; r < 16; r++){
+            if((registers & (1 << r)) != 0){
+                code.aload(V_ARG).iconst(r).op(BytecodeWriter.BALOAD).iconst(0xFF).op(BytecodeWriter.IAND).istore(FIRST_REGISTER + r);
+            }
+        }
+    }
+
+    static void storeRegisters(BytecodeWriter.Code code, int registers){  //and back
+        for(int r = 0; r < 16; r++){
+            if((registers & (1 << r)) != 0){
+                code.aload(V_ARG).iconst(r).iload(FIRST_REGISTER + r).op(BytecodeWriter.BASTORE);
+            }
+        }
+    }
+
+    static boolean mayFault(int op){  //instructions that can throw CpuFault, see emitAt()
+        return op == Instruction.DRW || op == Instruction.LOAD || op == Instruction.SKP || op == Instruction.SKNP
+                || op == Instruction.CALL || op == Instruction.RET;
+    }
+
+    //stores V and sets pc to instruction index of the block, so a fault leaves the state the interpreter would, and
+    //Emulator counts the index instructions finished before it
+    static void emitAt(BytecodeWriter.Code code, int registers, int index){
+        storeRegisters(code, registers);
+        code.aload(MEMORY_ARG).iconst(index).invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "at", "(I)V");
+    }
+
+    static int registers(Instruction ins){
+        switch (ins.op){
+            case Instruction.CLS:
+            case Instruction.LD_I:
+                return 0;
+            case Instruction.LOAD:
+                return (1 << (ins.x + 1)) - 1;
+            default:
+                return 1 << ins.x | 1 << ins.y | 1 << 0xF;
+        }
+    }
+
+    static boolean readsTimers(int op){
+        return op == Instruction.LD_DT || op == Instruction.SET_DT || op == Instruction.SET_ST;
+    }
+
+    //mirrors Memory.execute() operation by operation so both paths leave identical state
+    static void emit(BytecodeWriter.Code code, Instruction ins){
+        int vx = FIRST_REGISTER + ins.x;
+        int vy = FIRST_REGISTER + ins.y;
+        int vf = FIRST_REGISTER + 0xF;
+        switch (ins.op){
+            case Instruction.CLS:
+                code.aload(MEMORY_ARG).invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "clearScreen", "()V");
+                return;
+            case Instruction.LD_NN:
+                code.iconst(ins.nn).istore(vx);
+                return;
+            case Instruction.ADD_NN:  //sum - 256 when sum >= 256, without a branch
+                code.iload(vx).iconst(ins.nn).op(BytecodeWriter.IADD).istore(TEMP);
+                code.iload(TEMP).iconst(255).iload(TEMP).op(BytecodeWriter.ISUB).iconst(31).op(BytecodeWriter.IUSHR)
+                    .iconst(8).op(BytecodeWriter.ISHL).op(BytecodeWriter.ISUB).istore(vx);
+                return;
+            case Instruction.LD_VY:
+                code.iload(vy).istore(vx);
+                return;
+            case Instruction.OR:
+                code.iload(vx).iload(vy).op(BytecodeWriter.IOR).istore(vx);
+                return;
+            case Instruction.AND:
+                code.iload(vx).iload(vy).op(BytecodeWriter.IAND).istore(vx);
+                return;
+            case Instruction.XOR:
+                code.iload(vx).iload(vy).op(BytecodeWriter.IXOR).istore(vx);
+                return;
+            case Instruction.ADD_VY:  //VF = sum > 255
+                code.iload(vx).iload(vy).op(BytecodeWriter.IADD).istore(TEMP);
+                code.iconst(255).iload(TEMP).op(BytecodeWriter.ISUB).iconst(31).op(BytecodeWriter.IUSHR).istore(vf);
+                code.iload(TEMP).iconst(0xFF).op(BytecodeWriter.IAND).istore(vx);
+                return;
+            case Instruction.SUB:  //VF = vx > vy, from the values before either is written
+                code.iload(vx).iload(vy).op(BytecodeWriter.ISUB).iconst(0xFF).op(BytecodeWriter.IAND).istore(TEMP);
+                code.iload(vy).iload(vx).op(BytecodeWriter.ISUB).iconst(31).op(BytecodeWriter.IUSHR).istore(vf);
+                code.iload(TEMP).istore(vx);
+                return;
+            case Instruction.SHR:  //VX from its value before VF is written, for X = F
+                code.iload(vx).istore(TEMP);
+                code.iload(TEMP).iconst(1).op(BytecodeWriter.IAND).istore(vf);
+                code.iload(TEMP).iconst(1).op(BytecodeWriter.IUSHR).istore(vx);
+                return;
+            case Instruction.SUBN:  //VF = vy > vx
+                code.iload(vy).iload(vx).op(BytecodeWriter.ISUB).iconst(0xFF).op(BytecodeWriter.IAND).istore(TEMP);
+                code.iload(vx).iload(vy).op(BytecodeWriter.ISUB).iconst(31).op(BytecodeWriter.IUSHR).istore(vf);
+                code.iload(TEMP).istore(vx);
+                return;
+            case Instruction.SHL:
+                code.iload(vx).istore(TEMP);
+                code.iload(TEMP).iconst(7).op(BytecodeWriter.IUSHR).istore(vf);
+                code.iload(TEMP).iconst(1).op(BytecodeWriter.ISHL).iconst(0xFF).op(BytecodeWriter.IAND).istore(vx);
+                return;
+            case Instruction.LD_I:
+                code.aload(MEMORY_ARG).iconst(ins.nnn).invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "setI", "(I)V");
+                return;
+            case Instruction.RND:
+                code.aload(MEMORY_ARG).iconst(ins.nn).invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "randomByte", "(I)I").istore(vx);
+                return;
+            case Instruction.DRW:
+                code.aload(MEMORY_ARG).iload(vx).iload(vy).iconst(ins.n)
+                    .invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "drawSprite", "(III)I").istore(vf);
+                return;
+            case Instruction.LD_DT:
+                code.aload(MEMORY_ARG).invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "getDelayTimer", "()I").istore(vx);
+                return;
+            case Instruction.SET_DT:
+                code.aload(MEMORY_ARG).iload(vx).invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "setDelayTimer", "(I)V");
+                return;
+            case Instruction.SET_ST:
+                code.aload(MEMORY_ARG).iload(vx).invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "setSoundTimer", "(I)V");
+                return;
+            case Instruction.ADD_I:
+                code.aload(MEMORY_ARG).iload(vx).invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "addToI", "(I)I").istore(vf);
+                return;
+            case Instruction.FONT:
+                code.aload(MEMORY_ARG).iload(vx).iconst(5).op(BytecodeWriter.IMUL)
+                    .invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "setI", "(I)V");
+                return;
+            case Instruction.LOAD:  //VX first, so a range fault happens before any register is loaded, at the address Memory reports
+                for(int r = ins.x; r >= 0; r--){
+                    code.aload(MEMORY_ARG).iconst(r).invoke(BytecodeWriter.INVOKEVIRTUAL, MEMORY, "readAtI", "(I)I")
+                        .istore(FIRST_REGISTER + r);
+                }
+                return;
+            default:
+                throw new IllegalArgumentException("not a straight-line instruction: " + Integer.toHexString(ins.opcode));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.company;
+
+//sound output. The emulation thread tick()s it once per emulated 60hz timer tick and writes that tick's PCM, a square
+//tone while the sound timer runs, or the XO-CHIP pattern at its pitch, into a single-producer single-consumer ring. The
+//audio thread read()s from the ring at the sample rate, see AudioLine. Nothing allocates after construction, and the
+//producer keeps at most half a frame queued ahead of the next tick, so sound lags emulated time by less than one frame
+public class Buzzer {
+    public static final int SAMPLE_RATE = 48000;                           //16 bit mono
+    public static final int TICK_SAMPLES = SAMPLE_RATE / Emulator.TIMER_HZ; //800, one timer tick of sound
+    private static final int RING_SIZE = 2048;                             //power of two, above MAX_QUEUED + TICK_SAMPLES
+    private static final int MAX_QUEUED = TICK_SAMPLES / 2;                //left unplayed when a tick is written
+    private static final short AMPLITUDE = 6000;
+    private static final int TONE_STEP = (int) (440L * (1L << 32) / SAMPLE_RATE);  //440hz square, one period per 2^32 of phase
+    private static final int[] PITCH_STEP = new int[256];                  //XO-CHIP, 128 pattern bits per 2^32 of phase
+
+    static {
+        for(int pitch = 0; pitch < PITCH_STEP.length; pitch++){
+            double bitsPerSecond = 4000 * Math.pow(2, (pitch - 64) / 48.0);
+            PITCH_STEP[pitch] = (int) (bitsPerSecond * (1L << 25) / SAMPLE_RATE);
+        }
+    }
+
+    private final short[] ring = new short[RING_SIZE];
+    private final boolean nullSink;  //counts ticks without making samples, e.g. headless runs
+    private volatile long head;      //next sample to read, written by the consumer only
+    private volatile long tail;      //next free slot, written by the producer only
+    private int phase;               //producer only, carried across ticks so the tone has no clicks
+
+    private volatile long ticks;         //written by the producer only
+    private volatile long soundingTicks;
+    private volatile long overruns;      //samples dropped because the consumer was behind
+    private volatile long maxLag;        //samples queued ahead of a tick once it is written
+    private volatile long underruns;     //written by the consumer only, once per run of empty reads
+    private boolean starved;
+
+    public Buzzer(){
+        this(false);
+    }
+
+    private Buzzer(boolean nullSink){
+        this.nullSink = nullSink;
+    }
+
+    public static Buzzer nullSink(){  //keeps the counters, plays nothing
+        return new Buzzer(true);
+    }
+
+    public void tick(Memory memory){  //producer side, the emulation thread, once per emulated timer tick
+        boolean sounding = memory.getSoundTimer() > 0;
+        ticks++;
+        if(sounding){
+            soundingTicks++;
+        }
+        if(nullSink){
+            return;  //unthrottled runs make many ticks per real frame, generating them would cost more than the CPU
+        }
+        byte[] pattern = memory.getPattern();
+        boolean patterned = sounding && hasPattern(pattern);  //an empty XO-CHIP pattern still beeps, like CHIP-8
+        int step = patterned ? PITCH_STEP[memory.getPitch()] : TONE_STEP;
+
+        long t = tail;
+        long queued = t - head;
+        int skip = 0;
+        if(queued > MAX_QUEUED){
+            skip = (int) Math.min(queued - MAX_QUEUED, TICK_SAMPLES);  //the start of this tick is dropped to catch up
+            overruns += skip;
+        }
+        if(queued > maxLag){
+            maxLag = Math.min(queued, MAX_QUEUED);
+        }
+        int p = phase;
+        for(int i = 0; i < TICK_SAMPLES; i++){
+            short sample;
+            if(!sounding){
+                sample = 0;
+            } else if(patterned){
+                int bit = p >>> 25;
+                sample = (pattern[bit >>> 3] >> (7 - (bit & 7)) & 1) != 0 ? AMPLITUDE : -AMPLITUDE;
+            } else {
+                sample = p < 0 ? -AMPLITUDE : AMPLITUDE;
+            }
+            p += step;
+            if(i >= skip){
+                ring[(int) t++ & (RING_SIZE - 1)] = sample;
+            }
+        }
+        phase = sounding ? p : 0;
+        tail = t;  //volatile write publishes the samples
+    }
+
+    private static boolean hasPattern(byte[] pattern){
+        for(byte b : pattern){
+            if(b != 0){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int read(short[] out, int count){  //consumer side, the audio thread, returns the samples copied, at most count
+        long h = head;
+        int n = (int) Math.min(count, tail - h);
+        for(int i = 0; i < n; i++){
+            out[i] = ring[(int) (h + i) & (RING_SIZE - 1)];
+        }
+        head = h + n;  //volatile write hands the slots back to the producer
+        if(n < count && !starved){
+            underruns++;
+        }
+        starved = n < count;
+        return n;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public long getSoundingTicks() {  //ticks with the sound timer running
+        return soundingTicks;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public long getOverruns() {  //in samples
+        return overruns;
+    }
+
+    public double getMaxLagMillis() {  //worst lag of the ring behind emulated time, the output line adds its buffer
+        return maxLag * 1000.0 / SAMPLE_RATE;
+    }
+
+    public boolean isNullSink() {
+        return nullSink;
+    }
+}
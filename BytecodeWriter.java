@@ -0,0 +1,362 @@
+package com.company;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//minimal class file writer for generated classes. No stack maps are written, so methods only branch (tableswitch) in
+//Java 5 class files, which the JVM still verifies by type inference
+public class BytecodeWriter {
+    public static final int JAVA_5 = 49;
+    public static final int JAVA_8 = 52;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    //opcodes used by the generators
+    public static final int ICONST_0 = 0x03;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC = 0x12;
+    public static final int LDC_W = 0x13;
+    public static final int ILOAD = 0x15;
+    public static final int ALOAD = 0x19;
+    public static final int ILOAD_0 = 0x1A;
+    public static final int ALOAD_0 = 0x2A;
+    public static final int IALOAD = 0x2E;
+    public static final int BALOAD = 0x33;
+    public static final int ISTORE = 0x36;
+    public static final int ISTORE_0 = 0x3B;
+    public static final int IASTORE = 0x4F;
+    public static final int BASTORE = 0x54;
+    public static final int IADD = 0x60;
+    public static final int ISUB = 0x64;
+    public static final int IMUL = 0x68;
+    public static final int ISHL = 0x78;
+    public static final int IUSHR = 0x7C;
+    public static final int IAND = 0x7E;
+    public static final int IOR = 0x80;
+    public static final int IXOR = 0x82;
+    public static final int TABLESWITCH = 0xAA;
+    public static final int IRETURN = 0xAC;
+    public static final int ARETURN = 0xB0;
+    public static final int RETURN = 0xB1;
+    public static final int GETFIELD = 0xB4;
+    public static final int PUTFIELD = 0xB5;
+    public static final int INVOKEVIRTUAL = 0xB6;
+    public static final int INVOKESPECIAL = 0xB7;
+    public static final int INVOKESTATIC = 0xB8;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream fields = new ByteArrayOutputStream();
+    private final DataOutputStream fieldsOut = new DataOutputStream(fields);
+    private int fieldCount;
+
+    private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+    private final DataOutputStream methodsOut = new DataOutputStream(methods);
+    private int methodCount;
+
+    private final int version;
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final int access;
+
+    public BytecodeWriter(int access, String name, String superName, String... interfaceNames){  //names in internal form, e.g. com/company/Memory
+        this(JAVA_8, access, name, superName, interfaceNames);
+    }
+
+    public BytecodeWriter(int version, int access, String name, String superName, String... interfaceNames){
+        this.version = version;
+        this.access = access;
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.interfaces = new int[interfaceNames.length];
+        for(int i = 0; i < interfaceNames.length; i++){
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+    }
+
+    public Code method(int access, String name, String descriptor){
+        return new Code(access, utf8(name), utf8(descriptor));
+    }
+
+    public void field(int access, String name, String descriptor){
+        try {
+            fieldsOut.writeShort(access);
+            fieldsOut.writeShort(utf8(name));
+            fieldsOut.writeShort(utf8(descriptor));
+            fieldsOut.writeShort(0);  //attributes
+            fieldCount++;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public byte[] toByteArray(){
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(version);
+            out.writeShort(poolCount);
+            poolOut.flush();
+            pool.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for(int i : interfaces){
+                out.writeShort(i);
+            }
+            out.writeShort(fieldCount);
+            fieldsOut.flush();
+            fields.writeTo(out);
+            out.writeShort(methodCount);
+            methodsOut.flush();
+            methods.writeTo(out);
+            out.writeShort(0);  //attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);  //in-memory streams do not fail
+        }
+    }
+
+    public int methodRef(String owner, String name, String descriptor){
+        String key = "M" + owner + "." + name + descriptor;
+        Integer index = poolIndex.get(key);
+        if(index == null){
+            int classIndex = classRef(owner);
+            int nameAndType = nameAndType(name, descriptor);
+            index = entry(key, 10, classIndex, nameAndType);
+        }
+        return index;
+    }
+
+    public int fieldRef(String owner, String name, String descriptor){
+        String key = "F" + owner + "." + name + ":" + descriptor;
+        Integer index = poolIndex.get(key);
+        if(index == null){
+            int classIndex = classRef(owner);
+            int nameAndType = nameAndType(name, descriptor);
+            index = entry(key, 9, classIndex, nameAndType);
+        }
+        return index;
+    }
+
+    private int string(String value){
+        Integer index = poolIndex.get("S" + value);
+        if(index == null){
+            index = entry("S" + value, 8, utf8(value), -1);
+        }
+        return index;
+    }
+
+    private int classRef(String name){
+        Integer index = poolIndex.get("C" + name);
+        if(index == null){
+            index = entry("C" + name, 7, utf8(name), -1);
+        }
+        return index;
+    }
+
+    private int nameAndType(String name, String descriptor){
+        String key = "N" + name + ":" + descriptor;
+        Integer index = poolIndex.get(key);
+        if(index == null){
+            index = entry(key, 12, utf8(name), utf8(descriptor));
+        }
+        return index;
+    }
+
+    private int utf8(String value){
+        Integer index = poolIndex.get("U" + value);
+        if(index == null){
+            try {
+                poolOut.writeByte(1);
+                poolOut.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = poolCount++;
+            poolIndex.put("U" + value, index);
+        }
+        return index;
+    }
+
+    private int entry(String key, int tag, int first, int second){
+        try {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(first);
+            if(second >= 0){
+                poolOut.writeShort(second);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        int index = poolCount++;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    public class Code {  //body of one method, emitted in order and finished with end()
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<int[]> switches = new ArrayList<>();  //per tableswitch: its offset and the offset of its table
+        private final List<int[]> jumps = new ArrayList<>();     //table slot and target offset, filled in by end()
+
+        private Code(int access, int name, int descriptor){
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public Code op(int opcode){
+            code.write(opcode);
+            return this;
+        }
+
+        public Code iload(int local){
+            return local(ILOAD, ILOAD_0, local);
+        }
+
+        public Code istore(int local){
+            return local(ISTORE, ISTORE_0, local);
+        }
+
+        public Code aload(int local){
+            return local(ALOAD, ALOAD_0, local);
+        }
+
+        private Code local(int opcode, int shortOpcode, int local){  //one byte for locals 0-3
+            if(local < 4){
+                code.write(shortOpcode + local);
+            } else {
+                code.write(opcode);
+                code.write(local);
+            }
+            return this;
+        }
+
+        public Code iconst(int value){
+            if(value >= -1 && value <= 5){
+                code.write(ICONST_0 + value);
+            } else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+                code.write(BIPUSH);
+                code.write(value);
+            } else {
+                code.write(SIPUSH);
+                code.write(value >>> 8);
+                code.write(value);
+            }
+            return this;
+        }
+
+        public Code ldc(String value){
+            int index = string(value);
+            if(index < 256){
+                code.write(LDC);
+                code.write(index);
+            } else {
+                code.write(LDC_W);
+                code.write(index >>> 8);
+                code.write(index);
+            }
+            return this;
+        }
+
+        public Code invoke(int opcode, String owner, String name, String descriptor){
+            int index = methodRef(owner, name, descriptor);
+            code.write(opcode);
+            code.write(index >>> 8);
+            code.write(index);
+            return this;
+        }
+
+        public Code field(int opcode, String owner, String name, String descriptor){  //GETFIELD or PUTFIELD
+            int index = fieldRef(owner, name, descriptor);
+            code.write(opcode);
+            code.write(index >>> 8);
+            code.write(index);
+            return this;
+        }
+
+        //tableswitch over 0 to cases - 1 on the int on the stack, place the targets with caseHere() and defaultHere().
+        //Java 5 class files only, see the class comment
+        public int tableswitch(int cases){
+            int at = code.size();
+            code.write(TABLESWITCH);
+            while(code.size() % 4 != 0){
+                code.write(0);
+            }
+            int table = code.size();
+            writeInt(0);
+            writeInt(0);
+            writeInt(cases - 1);
+            for(int i = 0; i < cases; i++){
+                writeInt(0);
+            }
+            switches.add(new int[]{at, table});
+            return switches.size() - 1;
+        }
+
+        public Code caseHere(int tableswitch, int index){  //the next instruction is the target of case index
+            int[] at = switches.get(tableswitch);
+            jumps.add(new int[]{at[1] + 12 + index * 4, code.size() - at[0]});
+            return this;
+        }
+
+        public Code defaultHere(int tableswitch){
+            int[] at = switches.get(tableswitch);
+            jumps.add(new int[]{at[1], code.size() - at[0]});
+            return this;
+        }
+
+        private void writeInt(int value){
+            code.write(value >>> 24);
+            code.write(value >>> 16);
+            code.write(value >>> 8);
+            code.write(value);
+        }
+
+        public void end(int maxStack, int maxLocals){
+            try {
+                byte[] bytes = code.toByteArray();
+                for(int[] jump : jumps){
+                    for(int i = 0; i < 4; i++){
+                        bytes[jump[0] + i] = (byte) (jump[1] >>> (24 - i * 8));
+                    }
+                }
+                methodsOut.writeShort(access);
+                methodsOut.writeShort(name);
+                methodsOut.writeShort(descriptor);
+                methodsOut.writeShort(1);
+                methodsOut.writeShort(utf8("Code"));
+                methodsOut.writeInt(12 + bytes.length);
+                methodsOut.writeShort(maxStack);
+                methodsOut.writeShort(maxLocals);
+                methodsOut.writeInt(bytes.length);
+                methodsOut.write(bytes);
+                methodsOut.writeShort(0);  //exception table
+                methodsOut.writeShort(0);  //attributes
+                methodCount++;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
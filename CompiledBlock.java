@@ -0,0 +1,8 @@
+package com.company;
+
+public interface CompiledBlock {  //run of CHIP-8 instructions compiled to JVM bytecode by BlockCompiler or RomTranslator
+
+    //executes the whole block against V and memory helpers and moves pc past it, or to the target of the jump or skip
+    //ending it, returns the number of instructions executed
+    int run(Memory memory, byte[] V);
+}
@@ -0,0 +1,78 @@
+package com.company;
+
+//edge coverage for the fuzzer: hit counts per transition between consecutively executed addresses, hashed into a
+//fixed table, as AFL does. Indices hit since reset() are listed, so reading and clearing a run costs its edges only
+public class Coverage {
+    public static final int BITS = 14;
+    public static final int SIZE = 1 << BITS;  //64 KB of counters
+
+    private static final byte[] BUCKETS = new byte[256];  //hit count to one bit, 1, 2, 3, 4-7, 8-15, 16-31, 32-127, 128+
+
+    static {
+        for(int count = 1; count < 256; count++){
+            int bucket = count <= 3 ? count - 1 : count <= 7 ? 3 : count <= 15 ? 4 : count <= 31 ? 5 : count <= 127 ? 6 : 7;
+            BUCKETS[count] = (byte) (1 << bucket);
+        }
+    }
+
+    private final int[] hits = new int[SIZE];
+    private final int[] touched = new int[SIZE];
+    private int count;     //of touched
+    private int previous;  //hashed last address, shifted so A -> B and B -> A differ
+
+    void visit(int pc){  //from Memory.step(), before the instruction at pc runs
+        int current = pc * 0x9E3779B1 >>> (32 - BITS);
+        int edge = current ^ previous;
+        previous = current >>> 1;
+        if(hits[edge]++ == 0){
+            touched[count++] = edge;
+        }
+    }
+
+    public void reset(){
+        for(int i = 0; i < count; i++){
+            hits[touched[i]] = 0;
+        }
+        count = 0;
+        previous = 0;
+    }
+
+    //merges this run's buckets into seen, one byte of bucket bits per edge, returns true when it added any. Clears the run
+    public boolean mergeInto(byte[] seen){
+        boolean added = false;
+        for(int i = 0; i < count; i++){
+            int edge = touched[i];
+            byte bucket = BUCKETS[Math.min(hits[edge], 255)];
+            if((seen[edge] & bucket) == 0){
+                seen[edge] |= bucket;
+                added = true;
+            }
+        }
+        reset();
+        return added;
+    }
+
+    public boolean isNew(byte[] seen){  //would mergeInto(seen) add anything, the run is kept
+        for(int i = 0; i < count; i++){
+            int edge = touched[i];
+            if((seen[edge] & BUCKETS[Math.min(hits[edge], 255)]) == 0){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getEdges() {  //distinct edges this run
+        return count;
+    }
+
+    public static int countEdges(byte[] seen){
+        int edges = 0;
+        for(byte b : seen){
+            if(b != 0){
+                edges++;
+            }
+        }
+        return edges;
+    }
+}
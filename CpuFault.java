@@ -0,0 +1,50 @@
+package com.company;
+
+//a program error the machine cannot run past. Thrown by Memory with pc at the faulting instruction, or at the
+//instruction that moved pc out of memory. Stack traces are not filled in, the fuzzer throws millions of these
+public class CpuFault extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        UNKNOWN_OPCODE,   //only with Tracer.FAULTS, otherwise they are reported and skipped
+        STACK_OVERFLOW,   //2NNN with all 16 levels in use
+        STACK_UNDERFLOW,  //00EE with an empty stack
+        MEMORY_RANGE,     //I based access, or an operand, past the end of memory
+        KEY_RANGE,        //EX9E / EXA1 with VX above F
+        PC_RANGE          //next instruction past the end of memory
+    }
+
+    private final Kind kind;
+    private final int pc;
+    private final int opcode;   //-1 when pc is at the last byte of memory or past it
+    private final int address;  //MEMORY_RANGE: last address the access needed, KEY_RANGE: VX, otherwise -1
+
+    public CpuFault(Kind kind, int pc, int opcode, int address){
+        super(null, null, false, false);
+        this.kind = kind;
+        this.pc = pc;
+        this.opcode = opcode;
+        this.address = address;
+    }
+
+    @Override
+    public String getMessage() {  //formatted on demand, most faults are only classified
+        return String.format("%s at 0x%03x", kind, pc) + (opcode < 0 ? "" : String.format(" (%04x)", opcode)) + (address < 0 ? "" : String.format(kind == Kind.KEY_RANGE ? ", key 0x%x" : ", address 0x%x", address));
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+}
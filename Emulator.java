@@ -0,0 +1,283 @@
+package com.company;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class Emulator {
+    public static final int TIMER_HZ = 60;                  //delay and sound timers count down at 60hz
+    public static final int DEFAULT_INSTRUCTIONS_PER_SECOND = 700;
+    private static final long MAX_CATCH_UP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);  //cap work owed after a stall
+    private static final long FLUSH_CYCLES = 1 << 16;       //unthrottled runs flush metrics this often, throttled ones every call
+
+    private final Memory memory;
+    private final FrameBuffer frameBuffer;
+    private final Keypad keypad;
+
+    private int instructionsPerSecond;  //emulated cpu clock, also defines how many instructions make one timer tick
+    private boolean throttled;          //false = run as fast as possible, timers still follow emulated time
+    private long timerBase;             //cycle count when the clock rate was last set
+    private long timerTicks;            //timer ticks since timerBase
+    private long nextTimerCycle;        //cycle count at which the next timer tick is due
+    private long cycles;                //instructions executed since start
+    private long lastNanos;             //wall clock of the last runUntil() call
+    private volatile boolean running;
+
+    private Metrics metrics;            //null = no counting, see setMetrics()
+    private Buzzer buzzer;              //null = silent, see setBuzzer()
+    private FrameExchange display;      //run() publishes every emulated frame into it, e.g. FrameServer, null = none
+    private long ticks;                 //timer ticks since start, never reset
+    private long flushedCycles;         //cycles and ticks at the last metrics flush
+    private long flushedTicks;
+    private long clockNanos = -1;       //wall clock and ticks the timer drift is measured from
+    private long clockTicks;
+
+    public Emulator(){
+        this(new FrameBuffer(), new Keypad());
+    }
+
+    public Emulator(FrameBuffer frameBuffer, Keypad keypad){
+        this.frameBuffer = frameBuffer;
+        this.keypad = keypad;
+        this.memory = new Memory(frameBuffer, keypad);
+        this.throttled = true;
+        setInstructionsPerSecond(DEFAULT_INSTRUCTIONS_PER_SECOND);
+        this.lastNanos = -1;
+    }
+
+    public void loadProgram(String pathString) throws IOException {
+        memory.loadProgram(pathString);
+    }
+
+    public void step(){  //exactly one instruction
+        advance(1);
+    }
+
+    public void runCycles(long count){
+        keypad.drain();  //key changes posted by the UI take effect here, in order
+        long end = cycles + count;
+        while(cycles < end){
+            advance(end - cycles);
+        }
+        if(metrics != null && (throttled || cycles - flushedCycles >= FLUSH_CYCLES)){
+            flushMetrics();
+        }
+    }
+
+    private void advance(long budget){  //up to budget instructions, more than one only when a compiled block runs
+        int executed;
+        try {
+            executed = memory.step((int) Math.min(budget, Integer.MAX_VALUE), (int) (nextTimerCycle - cycles));
+        } catch (CpuFault fault) {  //the machine stops where the interpreter would, a compiled block may have run part of its instructions
+            cycles += memory.getCompleted();
+            tick();
+            throw fault;
+        }
+        cycles += executed;
+        tick();
+    }
+
+    private void tick(){  //timer ticks due by cycles
+        while(cycles >= nextTimerCycle){  //timer tick k falls after instruction ceil(k * instructionsPerSecond / 60)
+            if(buzzer != null){
+                buzzer.tick(memory);  //the sound of the tick that just ended, before the timer counts down
+            }
+            memory.updateTimers();
+            keypad.expireTaps();
+            timerTicks++;
+            ticks++;
+            scheduleTimer();
+        }
+    }
+
+    public void flushMetrics(){  //makes the counts so far visible, runs flush on their own every frame or FLUSH_CYCLES
+        if(metrics == null){
+            return;
+        }
+        memory.flushCounts(metrics, instructionsPerSecond);
+        metrics.addFrames(ticks - flushedTicks);
+        flushedTicks = ticks;
+        flushedCycles = cycles;
+    }
+
+    private void measureDrift(long nowNanos){  //emulated ticks against the ticks a true 60hz clock made since clockNanos
+        if(clockNanos < 0){
+            clockNanos = nowNanos;
+            clockTicks = ticks;
+            return;
+        }
+        metrics.setTimerDrift((ticks - clockTicks) * TimeUnit.SECONDS.toNanos(1) / TIMER_HZ - (nowNanos - clockNanos));
+    }
+
+    private void scheduleTimer(){
+        nextTimerCycle = timerBase + ((timerTicks + 1) * instructionsPerSecond + TIMER_HZ - 1) / TIMER_HZ;
+    }
+
+    public void runUntil(long nowNanos){  //runs the instructions owed since the previous call, used from a vsync pulse
+        if(lastNanos < 0){
+            lastNanos = nowNanos;
+            if(metrics != null){
+                measureDrift(nowNanos);
+            }
+            return;
+        }
+        long elapsed = Math.min(nowNanos - lastNanos, MAX_CATCH_UP_NANOS);
+        lastNanos = nowNanos;
+        runCycles(elapsed * instructionsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        if(metrics != null){
+            measureDrift(nowNanos);
+        }
+    }
+
+    public void run(long maxCycles){  //blocking loop for headless runs, maxCycles <= 0 runs until stop()
+        running = true;
+        long start = System.nanoTime();
+        long startCycles = cycles;
+        int batch = Math.max(1, instructionsPerSecond / TIMER_HZ);  //one timer tick worth of instructions
+
+        while(running && (maxCycles <= 0 || cycles - startCycles < maxCycles)){
+            long count = batch;
+            if(maxCycles > 0){
+                count = Math.min(count, maxCycles - (cycles - startCycles));
+            }
+            runCycles(count);
+            if(display != null){
+                display.publish(frameBuffer);
+            }
+
+            if(throttled){
+                long due = start + (cycles - startCycles) * TimeUnit.SECONDS.toNanos(1) / instructionsPerSecond;
+                long wait = due - System.nanoTime();
+                if(wait > 0){
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        running = false;
+                    }
+                }
+                if(metrics != null){
+                    long now = System.nanoTime();
+                    measureDrift(now);
+                    metrics.frame(now);
+                }
+            }
+        }
+        if(metrics != null){
+            flushMetrics();
+        }
+        running = false;
+    }
+
+    public Snapshot snapshot(){  //machine state plus the clock, so timer ticks fall on the same instructions after restore()
+        return memory.snapshot(cycles, timerBase, timerTicks);
+    }
+
+    public void restore(Snapshot snapshot){
+        memory.restore(snapshot);
+        cycles = snapshot.cycles;
+        timerBase = snapshot.timerBase;
+        timerTicks = snapshot.timerTicks;
+        scheduleTimer();
+        lastNanos = -1;  //the next runUntil() starts counting from there instead of catching up
+        clockNanos = -1;
+    }
+
+    public void stop(){
+        running = false;
+    }
+
+    public int getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    public void setInstructionsPerSecond(int instructionsPerSecond) {
+        if(instructionsPerSecond < TIMER_HZ){
+            throw new IllegalArgumentException("instructions per second must be at least " + TIMER_HZ);
+        }
+        this.instructionsPerSecond = instructionsPerSecond;
+        this.timerBase = cycles;
+        this.timerTicks = 0;
+        scheduleTimer();
+    }
+
+    public boolean isThrottled() {
+        return throttled;
+    }
+
+    public void setThrottled(boolean throttled) {
+        this.throttled = throttled;
+    }
+
+    public Variant getVariant() {
+        return memory.getVariant();
+    }
+
+    public void setVariant(Variant variant) {  //before loading a ROM, see Memory.setVariant()
+        memory.setVariant(variant);
+    }
+
+    public boolean isJit() {
+        return memory.getCompiler() != null && memory.getCompiler().isCompiling();
+    }
+
+    public void setJit(boolean jit) {  //same ROM and seed give the same state with or without the compiler
+        memory.setCompiler(jit ? new BlockCompiler() : null);
+    }
+
+    public void setCompiler(BlockCompiler compiler) {
+        memory.setCompiler(compiler);
+    }
+
+    public void setTranslation(RomTranslator.Translation translation) {  //after loading its ROM, code it lacks is interpreted, or compiled with setJit(true)
+        BlockCompiler compiler = memory.getCompiler();
+        if(compiler == null){
+            compiler = new BlockCompiler();
+            compiler.setCompiling(false);
+            memory.setCompiler(compiler);
+        }
+        compiler.install(translation);
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {  //counts from now on into metrics, several emulators may share one
+        if(this.metrics != null){
+            flushMetrics();
+        }
+        this.metrics = metrics;
+        memory.setCounting(metrics != null, metrics != null && metrics.isHotSpotsEnabled());
+        flushedCycles = cycles;
+        flushedTicks = ticks;
+        clockNanos = -1;
+    }
+
+    public Buzzer getBuzzer() {
+        return buzzer;
+    }
+
+    public void setBuzzer(Buzzer buzzer) {  //gets one tick of samples per emulated timer tick, in emulated time
+        this.buzzer = buzzer;
+    }
+
+    public void setDisplay(FrameExchange display) {  //for run(), GUI loops publish on their own
+        this.display = display;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    public Keypad getKeypad() {
+        return keypad;
+    }
+}
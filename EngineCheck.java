@@ -0,0 +1,214 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+//runs ROMs on the interpreter, the JIT, the AOT translation and, for CHIP-8, the lockstep engine, and compares their
+//machine state every CHUNK instructions, faults included. Without ROMs it runs built-in cases for instructions the
+//engines have disagreed on. Exits with 1 on the first difference per ROM.
+//usage: EngineCheck [rom|dir|pack ...] [--cycles N] [--variant chip8|schip|xochip]
+public class EngineCheck {
+    private static final int CHUNK = 97;  //odd, so comparisons also fall inside compiled blocks
+    private static final long SEED = 1;
+
+    //8XY6/8XYE/8XY4/8XY5/8XY7 with X = F and Y = F, each result copied out of VF before the next, in a loop hot enough to compile
+    private static final int[] FLAGS = {
+        0x6083,                          //0x200
+        0x6F83, 0x8F06, 0x81F0,          //0x202 loop
+        0x6F83, 0x8F0E, 0x82F0,
+        0x6FC1, 0x8FF6, 0x83F0,
+        0x6FC1, 0x8FFE, 0x84F0,
+        0x6FF0, 0x8F04, 0x85F0,
+        0x6F10, 0x8F05, 0x86F0,
+        0x6F10, 0x8F07, 0x87F0,
+        0x6F10, 0x80F5, 0x88F0,
+        0x7003, 0x1202
+    };
+
+    public static void main(String[] args) throws IOException {
+        long cycles = 20_000;
+        Variant variant = Variant.CHIP8;
+        int roms = 0;
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "--cycles": cycles = Long.parseLong(args[++i]); args[i - 1] = args[i] = null; break;
+                case "--variant": variant = Variant.parse(args[++i]); args[i - 1] = args[i] = null; break;
+                default:
+                    if(args[i].startsWith("--")){
+                        System.err.println("unknown option: " + args[i]);
+                        System.exit(2);
+                    }
+                    roms++;
+            }
+        }
+
+        boolean same = true;
+        if(roms == 0){
+            same = check("flags", program(FLAGS), variant, cycles);
+        }
+        for(String path : args){
+            if(path == null){
+                continue;
+            }
+            for(RomLibrary.Rom rom : RomLibrary.open(Paths.get(path)).getRoms()){
+                byte[] data = new byte[rom.getLength()];
+                rom.getData().get(data);
+                same &= check(rom.getNames().get(0), data, variant, cycles);
+            }
+        }
+        System.exit(same ? 0 : 1);
+    }
+
+    static byte[] program(int[] opcodes){
+        byte[] rom = new byte[opcodes.length * 2];
+        for(int i = 0; i < opcodes.length; i++){
+            rom[2 * i] = (byte) (opcodes[i] >>> 8);
+            rom[2 * i + 1] = (byte) opcodes[i];
+        }
+        return rom;
+    }
+
+    static boolean check(String name, byte[] rom, Variant variant, long cycles){
+        if(rom.length > variant.memorySize - 512){
+            System.out.println(name + ": does not fit " + variant);
+            return true;
+        }
+        Emulator interpreter = emulator(rom, variant);
+        Emulator jit = emulator(rom, variant);
+        jit.setJit(true);
+        Emulator aot = emulator(rom, variant);
+        RomTranslator.Translation translation = RomTranslator.define(RomTranslator.translate(ByteBuffer.wrap(rom)));
+        if(translation != null){
+            aot.setTranslation(translation);
+        }
+        Emulator[] engines = {jit, aot};
+        String[] names = {"jit", "aot"};
+        LockstepEngine lockstep = variant == Variant.CHIP8 ? new LockstepEngine(rom, 1, SEED) : null;
+
+        for(long done = 0; done < cycles; done += CHUNK){
+            long count = Math.min(CHUNK, cycles - done);
+            String expected = run(interpreter, count);
+            for(int e = 0; e < engines.length; e++){
+                String actual = run(engines[e], count);
+                String difference = expected != null || actual != null ? faultDifference(expected, actual)
+                        : difference(interpreter.snapshot(), engines[e].snapshot());
+                if(difference == null && interpreter.getCycles() != engines[e].getCycles()){
+                    difference = "cycles " + interpreter.getCycles() + " != " + engines[e].getCycles();
+                }
+                if(difference != null){
+                    System.out.println(name + ": " + names[e] + " differs from the interpreter after " + interpreter.getCycles()
+                            + " instructions, " + difference);
+                    return false;
+                }
+            }
+            if(lockstep != null && (expected == null || !expected.startsWith(CpuFault.Kind.UNKNOWN_OPCODE.name()))){  //skipped without Tracer.FAULTS
+                String actual = run(lockstep, count);
+                String difference = expected != null || actual != null ? faultDifference(expected, actual)
+                        : difference(interpreter.snapshot(), lockstep);
+                if(difference == null && interpreter.getCycles() != lockstep.getCycles()){
+                    difference = "cycles " + interpreter.getCycles() + " != " + lockstep.getCycles();
+                }
+                if(difference != null){
+                    System.out.println(name + ": lockstep differs from the interpreter after " + interpreter.getCycles()
+                            + " instructions, " + difference);
+                    return false;
+                }
+            }
+            if(expected != null){
+                System.out.println(name + ": every engine " + expected + " after " + interpreter.getCycles() + " instructions");
+                return true;
+            }
+        }
+        System.out.println(name + ": " + cycles + " instructions, interpreter = jit = aot" + (lockstep != null ? " = lockstep" : ""));
+        return true;
+    }
+
+    private static Emulator emulator(byte[] rom, Variant variant){
+        Emulator emulator = new Emulator();
+        emulator.setVariant(variant);
+        emulator.setThrottled(false);
+        emulator.getMemory().setSeed(SEED);
+        emulator.getMemory().setTracer(Tracer.FAULTS, Tracer.ERRORS);
+        emulator.getMemory().loadProgram(rom);
+        return emulator;
+    }
+
+    private static String run(Emulator emulator, long count){  //the fault and where it stopped, null when none
+        try {
+            emulator.runCycles(count);
+            return null;
+        } catch (CpuFault fault) {
+            return fault.getMessage();
+        }
+    }
+
+    private static String run(LockstepEngine lockstep, long count){
+        try {
+            lockstep.run(count);
+            return null;
+        } catch (CpuFault fault) {
+            return fault.getMessage();
+        }
+    }
+
+    private static String faultDifference(String expected, String actual){
+        if(expected == null || actual == null || !expected.equals(actual)){
+            return "interpreter: " + (expected != null ? expected : "no fault") + ", engine: " + (actual != null ? actual : "no fault");
+        }
+        return null;
+    }
+
+    static String difference(Snapshot a, Snapshot b){  //first field that differs, null when both machines are equal
+        if(a.pc != b.pc){
+            return String.format("pc %03x != %03x", a.pc, b.pc);
+        }
+        for(int r = 0; r < 16; r++){
+            if(a.V[r] != b.V[r]){
+                return String.format("V%X %02x != %02x", r, a.V[r] & 0xFF, b.V[r] & 0xFF);
+            }
+        }
+        if(a.I != b.I){
+            return String.format("I %03x != %03x", a.I, b.I);
+        }
+        if(a.sp != b.sp || !Arrays.equals(a.stack, 0, a.sp, b.stack, 0, b.sp)){
+            return "stack " + Arrays.toString(Arrays.copyOf(a.stack, a.sp)) + " != " + Arrays.toString(Arrays.copyOf(b.stack, b.sp));
+        }
+        if(a.delayTimer != b.delayTimer || a.soundTimer != b.soundTimer){
+            return "timers " + a.delayTimer + "/" + a.soundTimer + " != " + b.delayTimer + "/" + b.soundTimer;
+        }
+        if(a.random != b.random){
+            return "CXNN state";
+        }
+        if(a.hires != b.hires || !Arrays.equals(a.rows, b.rows)){
+            return "display";
+        }
+        for(int page = 0; page < a.pages.length; page++){
+            if(!Arrays.equals(a.pages[page], b.pages[page])){
+                return String.format("memory page %x", page);
+            }
+        }
+        return null;
+    }
+
+    private static String difference(Snapshot a, LockstepEngine b){  //what the lockstep engine exposes
+        if(a.pc != b.getPc(0)){
+            return String.format("pc %03x != %03x", a.pc, b.getPc(0));
+        }
+        for(int r = 0; r < 16; r++){
+            if((a.V[r] & 0xFF) != b.getV(0, r)){
+                return String.format("V%X %02x != %02x", r, a.V[r] & 0xFF, b.getV(0, r));
+            }
+        }
+        if(a.delayTimer != b.getDelayTimer(0)){
+            return "delay timer " + a.delayTimer + " != " + b.getDelayTimer(0);
+        }
+        for(int y = 0; y < FrameBuffer.HEIGHT; y++){
+            if(a.rows[y] != b.getRow(0, y)){
+                return "display row " + y;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,189 @@
+package com.company;
+
+import java.util.Arrays;
+
+public class FrameBuffer {
+    public static final int WIDTH = 64;             //lo-res, the only resolution of CHIP-8
+    public static final int HEIGHT = 32;
+    public static final int HIRES_WIDTH = 128;      //SCHIP and XO-CHIP after 00FF
+    public static final int HIRES_HEIGHT = 64;
+    public static final int PLANES = 2;             //XO-CHIP bitplanes
+    static final int WORD = HIRES_HEIGHT;           //extended layout, see index()
+    static final int PLANE = 2 * WORD;
+
+    //CHIP-8: one 64 bit word per display row, bit 63 is x = 0, set bit = white pixel.
+    //Extended: per plane two columns of words, x 0-63 then x 64-127, so rows[y] is still plane 0 row y in lo-res,
+    //vertical scrolls are array copies and horizontal scrolls are shifts across the two words of a row
+    private long[] rows;
+    private boolean hires;
+
+    public FrameBuffer(){
+        rows = new long[HEIGHT];
+    }
+
+    void extend(int planes){  //0 restores the CHIP-8 layout, 1 for SCHIP, 2 for XO-CHIP, clears the display
+        rows = planes == 0 ? new long[HEIGHT] : new long[planes * PLANE];
+        hires = false;
+    }
+
+    static int index(int plane, int word, int y){  //of a display word in getRows(), word 1 is x 64-127 in hi-res
+        return plane * PLANE + word * WORD + y;
+    }
+
+    public void clear(){
+        Arrays.fill(rows, 0);
+    }
+
+    public void clear(int planes){  //selected planes only, bit n for plane n
+        if(rows.length == HEIGHT || (planes & 3) == 3){
+            clear();
+            return;
+        }
+        for(int plane = 0; plane < getPlanes(); plane++){
+            if((planes & 1 << plane) != 0){
+                Arrays.fill(rows, plane * PLANE, (plane + 1) * PLANE, 0);
+            }
+        }
+    }
+
+    public boolean xorRow(int y, long bits){  //XORs bits into row y, returns true when a white pixel was turned off
+        long row = rows[y];
+        rows[y] = row ^ bits;
+        return (row & bits) != 0;
+    }
+
+    public boolean xorRow(int plane, int y, long left, long right){  //extended layout, right is x 64-127 and 0 in lo-res
+        int i = plane * PLANE + y;
+        long a = rows[i];
+        long b = rows[i + WORD];
+        rows[i] = a ^ left;
+        rows[i + WORD] = b ^ right;
+        return ((a & left) | (b & right)) != 0;
+    }
+
+    public void scrollDown(int n, int planes){  //00CN, n rows of the current resolution, whole words moved at once
+        int height = getHeight();
+        n = Math.min(n, height);
+        for(int plane = 0; plane < getPlanes(); plane++){
+            if((planes & 1 << plane) == 0){
+                continue;
+            }
+            for(int word = 0; word < (hires ? 2 : 1); word++){
+                int base = index(plane, word, 0);
+                System.arraycopy(rows, base, rows, base + n, height - n);
+                Arrays.fill(rows, base, base + n, 0);
+            }
+        }
+    }
+
+    public void scrollUp(int n, int planes){  //00DN
+        int height = getHeight();
+        n = Math.min(n, height);
+        for(int plane = 0; plane < getPlanes(); plane++){
+            if((planes & 1 << plane) == 0){
+                continue;
+            }
+            for(int word = 0; word < (hires ? 2 : 1); word++){
+                int base = index(plane, word, 0);
+                System.arraycopy(rows, base + n, rows, base, height - n);
+                Arrays.fill(rows, base + height - n, base + height, 0);
+            }
+        }
+    }
+
+    public void scrollRight(int planes){  //00FB, 4 pixels, the bits leaving the left word enter the right one
+        for(int plane = 0; plane < getPlanes(); plane++){
+            if((planes & 1 << plane) == 0){
+                continue;
+            }
+            for(int y = 0; y < getHeight(); y++){
+                int i = plane * PLANE + y;
+                if(hires){
+                    rows[i + WORD] = rows[i + WORD] >>> 4 | rows[i] << 60;
+                }
+                rows[i] >>>= 4;
+            }
+        }
+    }
+
+    public void scrollLeft(int planes){  //00FC, 4 pixels
+        for(int plane = 0; plane < getPlanes(); plane++){
+            if((planes & 1 << plane) == 0){
+                continue;
+            }
+            for(int y = 0; y < getHeight(); y++){
+                int i = plane * PLANE + y;
+                if(hires){
+                    rows[i] = rows[i] << 4 | rows[i + WORD] >>> 60;
+                    rows[i + WORD] <<= 4;
+                } else {
+                    rows[i] <<= 4;
+                }
+            }
+        }
+    }
+
+    public boolean isSet(int x, int y){  //plane 0
+        return (rows[(x >>> 6) * WORD + y] << x) < 0;
+    }
+
+    public int pixel(int x, int y){  //bit n set when plane n is, e.g. a palette index
+        int color = 0;
+        for(int plane = 0; plane < getPlanes(); plane++){
+            if((rows[index(plane, x >>> 6, y)] << x) < 0){
+                color |= 1 << plane;
+            }
+        }
+        return color;
+    }
+
+    public long hash(){  //FNV-1a over the rows, compares runs and replays without keeping whole frames
+        long hash = 0xCBF29CE484222325L;
+        for(long row : rows){
+            for(int shift = 56; shift >= 0; shift -= 8){
+                hash = (hash ^ ((row >>> shift) & 0xFF)) * 0x100000001B3L;
+            }
+        }
+        if(hires){
+            hash = (hash ^ 1) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    public void setRows(long[] source){  //restores a saved display, switching layout when it was saved in another one
+        if(source.length != rows.length){
+            rows = new long[source.length];
+        }
+        System.arraycopy(source, 0, rows, 0, rows.length);
+    }
+
+    public void copyFrom(FrameBuffer source){
+        hires = source.hires;
+        setRows(source.rows);
+    }
+
+    public long[] getRows() {
+        return rows;
+    }
+
+    public boolean isHires() {
+        return hires;
+    }
+
+    public void setHires(boolean hires){  //00FF and 00FE, clears the display
+        this.hires = hires;
+        clear();
+    }
+
+    public int getWidth() {
+        return hires ? HIRES_WIDTH : WIDTH;
+    }
+
+    public int getHeight() {
+        return hires ? HIRES_HEIGHT : HEIGHT;
+    }
+
+    public int getPlanes() {
+        return rows.length == HEIGHT ? 1 : rows.length / PLANE;
+    }
+}
@@ -0,0 +1,204 @@
+package com.company;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+
+//viewer for FrameServer, decodes its delta frames into a FrameBuffer and can press keys. Also a test client: usage
+//FrameClient [host:]port [--stream N] [--frames N] [--key K] [--viewers N] [--resubscribe], prints the last frame as text
+//and the frames and bytes received, --viewers opens that many connections, each receiving --frames frames.
+//--resubscribe sends S again halfway and reports the set pixels around it, which must not collapse
+public class FrameClient implements AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final FrameBuffer frame = new FrameBuffer();
+    private long[] rows = new long[0];
+    private final byte[] payload = new byte[FrameServer.MAX_MESSAGE];
+    private int number;
+    private long frames;
+    private long bytes;
+
+    public FrameClient(String host, int port, int stream) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(socket.getOutputStream());
+        subscribe(stream);
+    }
+
+    public void subscribe(int stream) throws IOException {  //frames keep coming as deltas against the picture held here
+        command('S', stream >>> 8, stream);
+    }
+
+    public void key(int key, boolean pressed) throws IOException {  //goes to the stream's Keypad.post()
+        command('K', key, pressed ? 1 : 0);
+    }
+
+    private void command(int type, int a, int b) throws IOException {
+        out.write(new byte[]{(byte) type, (byte) a, (byte) b});
+        out.flush();
+    }
+
+    public FrameBuffer next() throws IOException {  //blocks for the next frame, the result is reused by the following call
+        if(in.readByte() != 'F'){
+            throw new IOException("not a frame");
+        }
+        boolean hires = (in.readByte() & 1) != 0;
+        int words = in.readUnsignedShort();
+        number = in.readInt();
+        int length = in.readUnsignedShort();
+        in.readFully(payload, 0, length);
+        bytes += length + 10;
+        if(words != rows.length){
+            rows = new long[words];
+        }
+        int at = 0;  //byte offset into rows
+        for(int i = 0; i < length; ){
+            int token = payload[i++] & 0xFF;
+            if(token < 128){
+                at += token + 1;
+                continue;
+            }
+            for(int n = token - 127; n > 0; n--, at++){
+                rows[at >>> 3] ^= (payload[i++] & 0xFFL) << (56 - (at & 7) * 8);
+            }
+        }
+        if(frame.isHires() != hires){
+            frame.setHires(hires);
+        }
+        frame.setRows(rows);
+        frames++;
+        return frame;
+    }
+
+    public int getNumber() {  //server's frame number of the last frame, gaps are frames skipped for this client
+        return number;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    static String text(FrameBuffer frame){  //plane 0, '#' = set pixel
+        StringBuilder out = new StringBuilder();
+        for(int y = 0; y < frame.getHeight(); y++){
+            for(int x = 0; x < frame.getWidth(); x++){
+                out.append(frame.pixel(x, y) != 0 ? '#' : '.');
+            }
+            out.append(System.lineSeparator());
+        }
+        return out.toString();
+    }
+
+    static int pixels(FrameBuffer frame){  //set bits over all planes
+        int count = 0;
+        for(long row : frame.getRows()){
+            count += Long.bitCount(row);
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 1){
+            System.err.println("usage: FrameClient [host:]port [--stream N] [--frames N] [--key K] [--viewers N] [--resubscribe]");
+            System.exit(2);
+        }
+        String host = "localhost";
+        String port = args[0];
+        if(port.contains(":")){
+            host = port.substring(0, port.lastIndexOf(':'));
+            port = port.substring(port.lastIndexOf(':') + 1);
+        }
+        int stream = 0;
+        int count = 60;
+        int key = -1;
+        int viewers = 1;
+        boolean resubscribe = false;
+        for(int i = 1; i < args.length; i++){
+            switch (args[i]){
+                case "--stream": stream = Integer.parseInt(args[++i]); break;
+                case "--frames": count = Integer.parseInt(args[++i]); break;
+                case "--key": key = Integer.parseInt(args[++i], 16); break;
+                case "--viewers": viewers = Integer.parseInt(args[++i]); break;
+                case "--resubscribe": resubscribe = true; break;
+                default:
+                    System.err.println("unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        FrameClient[] clients = new FrameClient[viewers];
+        for(int i = 0; i < viewers; i++){
+            clients[i] = new FrameClient(host, Integer.parseInt(port), stream);
+        }
+        long start = System.nanoTime();
+        Thread[] readers = new Thread[viewers - 1];  //the other viewers read on their own threads, the first one here
+        for(int i = 1; i < viewers; i++){
+            FrameClient client = clients[i];
+            int frames = count;
+            readers[i - 1] = new Thread(() -> {
+                try {
+                    for(int f = 0; f < frames; f++){
+                        client.next();
+                    }
+                } catch (EOFException e) {
+                    //server went away, counted as fewer frames
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            readers[i - 1].start();
+        }
+        FrameClient first = clients[0];
+        FrameBuffer frame = null;
+        int gaps = 0;
+        int before = -1;  //set pixels of the frame before the second S, -1 = not sent
+        for(int f = 0; f < count; f++){
+            int previous = first.getNumber();
+            frame = first.next();
+            if(f > 0 && first.getNumber() != previous + 1){
+                gaps++;
+            }
+            if(key >= 0 && f == count / 4){
+                first.key(key, true);
+            } else if(key >= 0 && f == count / 2){
+                first.key(key, false);
+            }
+            if(resubscribe && f == count / 2){
+                before = pixels(frame);
+                first.subscribe(stream);
+            }
+        }
+        for(Thread reader : readers){
+            reader.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.print(text(frame));
+        long frames = 0;
+        long bytes = 0;
+        for(FrameClient client : clients){
+            frames += client.getFrames();
+            bytes += client.getBytes();
+            client.close();
+        }
+        System.out.println(String.format("%d viewers, %d frames, %.1f bytes/frame, %.0f frames/s, %d gaps on the first viewer",
+                viewers, frames, (double) bytes / Math.max(1, frames), frames * 1e9 / elapsed, gaps));
+        if(before >= 0){
+            System.out.println("re-subscribed at frame " + count / 2 + ": " + before + " set pixels before, " + pixels(frame) + " at the end");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.company;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+//lock-free triple buffer between the emulation thread, which publishes complete frames, and the renderer, which takes
+//the newest one on each pulse. Neither side waits for the other, frames replaced before being taken count as dropped,
+//pulses without a new frame count as duplicated
+public class FrameExchange {
+    private static final int FRESH = 4;  //flag next to the buffer index in middle, set until the renderer takes it
+
+    private final FrameBuffer[] buffers = {new FrameBuffer(), new FrameBuffer(), new FrameBuffer()};
+    private final AtomicInteger middle = new AtomicInteger(1);  //last published buffer
+    private int back = 0;   //written by the producer only
+    private int front = 2;  //read by the consumer only
+
+    private volatile long published;   //each counter has a single writer
+    private volatile long dropped;
+    private volatile long presented;
+    private volatile long duplicated;
+
+    public void publish(FrameBuffer frameBuffer){  //producer, between instructions
+        buffers[back].copyFrom(frameBuffer);  //allocates only when the variant changes the layout
+        int old = middle.getAndSet(back | FRESH);
+        if((old & FRESH) != 0){
+            dropped++;
+        }
+        back = old & 3;
+        published++;
+    }
+
+    public boolean isFresh(){  //consumer, a frame was published since the last take()
+        return (middle.get() & FRESH) != 0;
+    }
+
+    public FrameBuffer take(){  //consumer, returns the newest complete frame, valid until the next take()
+        if((middle.get() & FRESH) == 0){
+            duplicated++;
+            return buffers[front];
+        }
+        front = middle.getAndSet(front) & 3;
+        presented++;
+        return buffers[front];
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getPresented() {
+        return presented;
+    }
+
+    public long getDuplicated() {
+        return duplicated;
+    }
+}
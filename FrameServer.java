@@ -0,0 +1,349 @@
+package com.company;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+//streams framebuffers to viewers over TCP, one selector thread for every stream and client. Emulation threads publish
+//into a FrameExchange per stream, the selector thread takes the newest frames 60 times a second, like the GUI's pulse.
+//
+//Each client gets its frames as XOR deltas against what it was last sent, run-length encoded into a direct buffer
+//allocated when it connects. A client still writing its previous frame skips the new one, it gets the newest frame,
+//still a delta against what it has, once its socket drains, so a slow viewer lags by at most one frame in flight.
+//
+//Server to client, big endian: 'F', flags (bit 0 hi-res), words in the frame (FrameBuffer.getRows() length), frame
+//number int, payload length short, then the payload: tokens of one byte, 0-127 = that many plus one unchanged bytes,
+//128-255 = that many minus 127 changed bytes follow, each XORed into the frame as 8 big endian bytes per word. Bytes
+//after the last token are unchanged, a frame with a new word count starts from an empty frame.
+//Client to server, 3 bytes each: 'S' stream short subscribes to a stream, 'K' key pressed(0/1) posts into its Keypad
+public class FrameServer {
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / Emulator.TIMER_HZ;
+    private static final int MAX_WORDS = FrameBuffer.PLANES * FrameBuffer.PLANE;           //XO-CHIP, 2 KB
+    private static final int HEADER = 10;
+    static final int MAX_MESSAGE = HEADER + MAX_WORDS * 8 * 3 / 2 + 1;  //every other byte changed, two tokens per changed byte
+    private static final int COMMAND = 3;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Consumer<SelectionKey> onReady = this::ready;  //allocated once, select() reuses it
+    private Stream[] streams = new Stream[0];
+    private Client[] clients = new Client[16];  //clients[0, clientCount), grown on accept only
+    private int clientCount;
+    private Thread thread;
+    private volatile boolean running;
+
+    private volatile long accepted;  //written by the selector thread only
+    private volatile long framesSent;
+    private volatile long framesSkipped;
+    private volatile long bytesSent;
+    private volatile long keysReceived;
+
+    public FrameServer(InetSocketAddress address) throws IOException {  //port 0 picks a free one, see getPort()
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public synchronized FrameExchange addStream(Keypad keypad){  //before start(), publish frames into the result, keypad may be null.
+        if(thread != null){                                       //Key input makes the selector thread the keypad's producer
+            throw new IllegalStateException("streams are added before start()");
+        }
+        Stream stream = new Stream(keypad);
+        streams = Arrays.copyOf(streams, streams.length + 1);
+        streams[streams.length - 1] = stream;
+        return stream.exchange;
+    }
+
+    public synchronized void start(){
+        running = true;
+        thread = new Thread(this::serve, "chip8-frame-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void close() throws IOException, InterruptedException {
+        running = false;
+        selector.wakeup();
+        if(thread != null){
+            thread.join();
+        }
+        for(SelectionKey key : selector.keys()){
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    private void serve(){
+        long next = System.nanoTime();
+        try {
+            while(running){
+                long wait = next - System.nanoTime();
+                if(wait > 0){
+                    selector.select(onReady, Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                } else {
+                    selector.selectNow(onReady);
+                }
+                long now = System.nanoTime();
+                if(now - next >= 0){
+                    pulse();
+                    next += FRAME_NANOS;
+                    if(now - next >= 0){
+                        next = now + FRAME_NANOS;  //fell behind, skip the missed pulses
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if(running){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void pulse(){  //newest frame of every stream, then every client that is behind and not busy writing
+        for(Stream stream : streams){
+            if(stream.exchange.isFresh()){
+                stream.frame = stream.exchange.take();
+                stream.number++;
+            }
+        }
+        for(int i = 0; i < clientCount; i++){
+            Client client = clients[i];
+            if(client.stream != null && client.number != client.stream.number){
+                if(client.out.hasRemaining()){
+                    framesSkipped++;
+                } else {
+                    send(client);
+                }
+            }
+        }
+    }
+
+    private void ready(SelectionKey key){
+        try {
+            if(key.isAcceptable()){
+                accept();
+                return;
+            }
+            Client client = (Client) key.attachment();
+            if(key.isReadable()){
+                read(client);
+            }
+            if(key.isValid() && key.isWritable()){
+                flush(client);
+            }
+        } catch (IOException e) {  //viewer went away, or a failed accept
+            if(key.attachment() != null){
+                drop((Client) key.attachment());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if(channel == null){
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, 2 * MAX_MESSAGE);  //frames queued in the kernel are stale too
+        Client client = new Client(channel);
+        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        if(clientCount == clients.length){
+            clients = Arrays.copyOf(clients, clientCount * 2);
+        }
+        client.index = clientCount;
+        clients[clientCount++] = client;
+        accepted++;
+    }
+
+    private void drop(Client client){
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+        }
+        Client last = clients[--clientCount];  //swap remove
+        clients[client.index] = last;
+        last.index = client.index;
+        clients[clientCount] = null;
+    }
+
+    private void read(Client client) throws IOException {
+        ByteBuffer in = client.in;
+        if(client.channel.read(in) < 0){
+            throw new IOException("closed");
+        }
+        in.flip();
+        while(in.remaining() >= COMMAND){
+            int type = in.get();
+            int a = in.get() & 0xFF;
+            int b = in.get() & 0xFF;
+            if(type == 'S'){
+                int stream = a << 8 | b;
+                if(stream >= streams.length){
+                    throw new IOException("no stream " + stream);
+                }
+                client.stream = streams[stream];
+                client.number = client.stream.number - 1;  //sent on the next pulse, still as a delta against what the client has
+            } else if(type == 'K'){
+                if(client.stream == null || client.stream.keypad == null || a > 0xF){
+                    continue;
+                }
+                client.stream.keypad.post(a, b != 0);
+                keysReceived++;
+            } else {
+                throw new IOException("bad command " + type);
+            }
+        }
+        in.compact();
+    }
+
+    private void send(Client client){  //delta of the stream's newest frame against what the client has, then write
+        Stream stream = client.stream;
+        if(stream.frame == null){
+            client.number = stream.number;
+            return;
+        }
+        encode(client, stream.frame, stream.number);
+        client.number = stream.number;
+        framesSent++;
+        try {
+            flush(client);
+        } catch (IOException e) {
+            drop(client);
+        }
+    }
+
+    private void flush(Client client) throws IOException {
+        bytesSent += client.channel.write(client.out);
+        boolean pending = client.out.hasRemaining();
+        client.key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        if(!pending && client.stream != null && client.number != client.stream.number){
+            send(client);  //caught up, the frames skipped meanwhile are one delta
+        }
+    }
+
+    static void encode(Client client, FrameBuffer frame, int number){
+        ByteBuffer out = client.out;
+        long[] rows = frame.getRows();
+        long[] sent = client.sent;
+        if(client.words != rows.length){  //new layout, the client starts from an empty frame
+            Arrays.fill(sent, 0);
+            client.words = rows.length;
+        }
+        out.clear();
+        out.put((byte) 'F');
+        out.put((byte) (frame.isHires() ? 1 : 0));
+        out.putShort((short) rows.length);
+        out.putInt(number);
+        int lengthAt = out.position();
+        out.putShort((short) 0);
+
+        int zeros = 0;       //unchanged bytes not yet written as a token
+        int literalAt = -1;  //token of the changed bytes being written, -1 = none
+        int literals = 0;
+        for(int word = 0; word < rows.length; word++){
+            long delta = rows[word] ^ sent[word];
+            sent[word] = rows[word];
+            for(int shift = 56; shift >= 0; shift -= 8){
+                byte b = (byte) (delta >>> shift);
+                if(b == 0){
+                    if(literalAt >= 0){
+                        out.put(literalAt, (byte) (0x7F + literals));
+                        literalAt = -1;
+                    }
+                    if(++zeros == 128){
+                        out.put((byte) 127);
+                        zeros = 0;
+                    }
+                    continue;
+                }
+                if(zeros > 0){
+                    out.put((byte) (zeros - 1));
+                    zeros = 0;
+                }
+                if(literalAt >= 0 && literals == 128){
+                    out.put(literalAt, (byte) 0xFF);
+                    literalAt = -1;
+                }
+                if(literalAt < 0){
+                    literalAt = out.position();
+                    out.put((byte) 0);
+                    literals = 0;
+                }
+                out.put(b);
+                literals++;
+            }
+        }
+        if(literalAt >= 0){
+            out.put(literalAt, (byte) (0x7F + literals));
+        }
+        out.putShort(lengthAt, (short) (out.position() - lengthAt - 2));  //trailing unchanged bytes are implied
+        out.flip();
+    }
+
+    public int getClients() {
+        return clientCount;  //selector thread's view
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    public long getFramesSkipped() {  //new frames a busy client did not get on their own, it got a later one instead
+        return framesSkipped;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getKeysReceived() {
+        return keysReceived;
+    }
+
+    private static final class Stream {
+        final FrameExchange exchange = new FrameExchange();
+        final Keypad keypad;
+        FrameBuffer frame;  //newest frame taken, selector thread only
+        int number;         //frames taken
+
+        Stream(Keypad keypad){
+            this.keypad = keypad;
+        }
+    }
+
+    static final class Client {
+        final SocketChannel channel;
+        final ByteBuffer out = ByteBuffer.allocateDirect(MAX_MESSAGE).flip();  //empty until the first frame
+        final ByteBuffer in = ByteBuffer.allocateDirect(64);
+        final long[] sent = new long[MAX_WORDS];  //the frame as the client has it once out is written
+        int words = -1;                           //layout of sent, -1 = nothing sent
+        SelectionKey key;
+        int index;                                //in clients
+        Stream stream;
+        int number;                               //stream frame last sent
+
+        Client(SocketChannel channel){
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.company;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+//coverage guided fuzzing of the interpreter with generated ROMs. Every worker thread owns one machine and resets it from
+//a snapshot of a fresh one per input instead of building a new one, then runs a mutated ROM with mutated key changes,
+//unknown opcodes being faults too. Inputs that reach a new PC transition, or a new hit count of one (Coverage), join
+//the shared corpus. The first input to fault with a kind on a class of instruction, wherever it is, is minimized and
+//written to the output directory as <kind>-<class>.ch8 and .log, e.g. MEMORY_RANGE-DXYN, reproduced by
+//Headless MEMORY_RANGE-DXYN.ch8 --replay MEMORY_RANGE-DXYN.log --strict.
+//usage: Fuzzer <rom|dir|pack> [--threads N] [--seconds N] [--cycles N] [--out DIR] [--variant chip8|schip|xochip] [--seed N]
+public class Fuzzer {
+    private static final int MAX_EVENTS = 32;  //key changes per input
+    private static final int MAX_STACKED = 4;  //mutations per input
+    private static final byte[] INTERESTING = {0x00, (byte) 0xFF, (byte) 0xE0, (byte) 0xEE, 0x01, 0x0F, (byte) 0x80, 0x7F};
+
+    private final Variant variant;
+    private final long seed;     //CXNN, the same for every input so a fault found is a fault replayed
+    private final int cycles;    //per input
+    private final Path out;
+    private final List<Input> corpus = new CopyOnWriteArrayList<>();  //read on every input, added to rarely
+    private final byte[] seen = new byte[Coverage.SIZE];              //every worker's finds, guarded by itself
+    private final Set<String> crashes = ConcurrentHashMap.newKeySet(); //signature() of every fault written
+    private volatile boolean running = true;
+
+    public Fuzzer(Variant variant, long seed, int cycles, Path out){
+        this.variant = variant;
+        this.seed = seed;
+        this.cycles = cycles;
+        this.out = out;
+    }
+
+    public void addSeed(byte[] rom){  //before start, ROMs that do not fit the variant are left out
+        if(rom.length > 0 && rom.length <= variant.memorySize - 512){
+            corpus.add(new Input(rom, new long[0]));
+        }
+    }
+
+    public int getCorpusSize() {
+        return corpus.size();
+    }
+
+    public int getEdges() {
+        synchronized (seen){
+            return Coverage.countEdges(seen);
+        }
+    }
+
+    public int getCrashes() {
+        return crashes.size();
+    }
+
+    static final class Input {
+        final byte[] rom;
+        final long[] events;  //cycle << 5 | key << 1 | pressed, in cycle order, as in InputLog
+
+        Input(byte[] rom, long[] events){
+            this.rom = rom;
+            this.events = events;
+        }
+    }
+
+    final class Worker implements Runnable {
+        private final Emulator emulator = new Emulator();
+        private final Coverage coverage = new Coverage();
+        private final byte[] local = new byte[Coverage.SIZE];  //copy of seen as of this worker's last find, checked without locking
+        private final SplittableRandom random;
+        private final Snapshot base;
+        private volatile long executions;  //written by the worker only
+        private long faultCycles;          //emulator cycles when the last fault was thrown
+
+        Worker(long workerSeed){
+            emulator.setVariant(variant);
+            emulator.setThrottled(false);
+            Memory memory = emulator.getMemory();
+            memory.setSeed(seed);
+            memory.setTracer(Tracer.FAULTS, Tracer.ERRORS);
+            memory.setCoverage(coverage);
+            base = emulator.snapshot();  //the machine a replay starts from, before its ROM is loaded
+            random = new SplittableRandom(workerSeed);
+        }
+
+        @Override
+        public void run(){
+            while(running){
+                Input input = mutate(corpus.get(random.nextInt(corpus.size())));
+                CpuFault fault = execute(input, cycles);
+                executions++;
+                if(fault != null){
+                    coverage.reset();
+                    String name = signature(fault);
+                    if(crashes.add(name)){
+                        save(name, minimize(input, name));
+                    }
+                } else if(coverage.isNew(local)){
+                    synchronized (seen){
+                        if(coverage.mergeInto(seen)){  //another worker may have found it first
+                            corpus.add(input);
+                        }
+                        System.arraycopy(seen, 0, local, 0, seen.length);
+                    }
+                }
+            }
+        }
+
+        CpuFault execute(Input input, long limit){  //the edges of the run stay in coverage
+            emulator.restore(base);
+            emulator.getKeypad().reset();
+            coverage.reset();
+            emulator.getMemory().loadProgram(input.rom);
+            try {
+                for(long event : input.events){  //same order as InputLog.replay()
+                    if(event >>> 5 >= limit){
+                        break;
+                    }
+                    emulator.runCycles((event >>> 5) - emulator.getCycles());
+                    emulator.getKeypad().setKey((int) (event >>> 1) & 0xF, (event & 1) != 0);
+                }
+                emulator.runCycles(limit - emulator.getCycles());
+                return null;
+            } catch (CpuFault fault) {
+                faultCycles = emulator.getCycles();
+                return fault;
+            }
+        }
+
+        private Input mutate(Input parent){
+            byte[] rom = parent.rom.clone();
+            long[] events = parent.events;
+            for(int n = 1 + random.nextInt(MAX_STACKED); n > 0; n--){
+                int at = random.nextInt(rom.length);
+                switch (random.nextInt(10)){
+                    case 0: rom[at] ^= 1 << random.nextInt(8); break;
+                    case 1: rom[at] = (byte) random.nextInt(256); break;
+                    case 2: rom[at] = INTERESTING[random.nextInt(INTERESTING.length)]; break;
+                    case 3: {  //an instruction, jumps, calls and I loads point into the ROM
+                        at &= ~1;
+                        int family = random.nextInt(16);
+                        int operand = family == 0x1 || family == 0x2 || family == 0xA || family == 0xB
+                                ? 0x200 + (random.nextInt(rom.length) & ~1) : random.nextInt(0x1000);
+                        rom[at] = (byte) (family << 4 | operand >>> 8 & 0xF);
+                        if(at + 1 < rom.length){
+                            rom[at + 1] = (byte) operand;
+                        }
+                        break;
+                    }
+                    case 4: rom = delete(rom, at, 1 + random.nextInt(Math.min(16, rom.length))); break;
+                    case 5: {  //a chunk of the ROM copied in front of at
+                        int from = random.nextInt(rom.length);
+                        int length = Math.min(1 + random.nextInt(16), Math.min(rom.length - from, variant.memorySize - 512 - rom.length));
+                        byte[] grown = new byte[rom.length + length];
+                        System.arraycopy(rom, 0, grown, 0, at);
+                        System.arraycopy(rom, from, grown, at, length);
+                        System.arraycopy(rom, at, grown, at + length, rom.length - at);
+                        rom = grown;
+                        break;
+                    }
+                    case 6: {  //head of this one, tail of another input
+                        byte[] other = corpus.get(random.nextInt(corpus.size())).rom;
+                        if(at < other.length){
+                            rom = Arrays.copyOf(rom, other.length);
+                            System.arraycopy(other, at, rom, at, other.length - at);
+                        }
+                        break;
+                    }
+                    case 7:
+                        if(events.length < MAX_EVENTS){
+                            events = Arrays.copyOf(events, events.length + 1);
+                            events[events.length - 1] = (long) random.nextInt(cycles) << 5 | random.nextInt(32);
+                            Arrays.sort(events);
+                        }
+                        break;
+                    case 8:
+                        if(events.length > 0){
+                            events = delete(events, random.nextInt(events.length));
+                        }
+                        break;
+                    default:
+                        if(events.length > 0){
+                            events = events.clone();
+                            int i = random.nextInt(events.length);
+                            events[i] = (long) random.nextInt(cycles) << 5 | events[i] & 0x1F;
+                            Arrays.sort(events);
+                        }
+                }
+            }
+            return new Input(rom, events);
+        }
+
+        //drops key changes, then ROM chunks of halving size, then zeroes single bytes, each only while the input still
+        //faults with the same signature, at any pc
+        private Input minimize(Input input, String name){
+            byte[] rom = input.rom;
+            long[] events = input.events;
+            for(int i = events.length - 1; i >= 0; i--){
+                long[] candidate = delete(events, i);
+                if(same(rom, candidate, name)){
+                    events = candidate;
+                }
+            }
+            for(int size = Integer.highestOneBit(rom.length); size >= 1; size >>>= 1){
+                for(int at = (rom.length - 1) / size * size; at >= 0; at -= size){
+                    if(rom.length == 1){
+                        break;
+                    }
+                    byte[] candidate = delete(rom, at, Math.min(size, rom.length - at));
+                    if(candidate.length > 0 && same(candidate, events, name)){
+                        rom = candidate;
+                    }
+                }
+            }
+            rom = rom.clone();
+            for(int i = 0; i < rom.length; i++){
+                byte b = rom[i];
+                if(b != 0){
+                    rom[i] = 0;
+                    if(!same(rom, events, name)){
+                        rom[i] = b;
+                    }
+                }
+            }
+            return new Input(rom, events);
+        }
+
+        private boolean same(byte[] rom, long[] events, String name){
+            CpuFault again = execute(new Input(rom, events), cycles);
+            coverage.reset();
+            return again != null && signature(again).equals(name);
+        }
+
+        private void save(String name, Input input){
+            CpuFault fault = execute(input, cycles);
+            coverage.reset();
+            long end = faultCycles + 1;  //up to the faulting instruction
+            InputLog log = new InputLog(InputLog.checksum(input.rom), seed, emulator.getInstructionsPerSecond(), variant);
+            for(long event : input.events){
+                log.add(event >>> 5, (int) (event >>> 1) & 0xF, (event & 1) != 0);
+            }
+            log.finish(end, 0);  //the replay faults before it gets to compare a hash
+            try {
+                Files.write(out.resolve(name + ".ch8"), input.rom);
+                log.write(out.resolve(name + ".log"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            System.out.println(fault.getMessage() + " after " + faultCycles + " instructions: " + input.rom.length + " bytes, "
+                    + input.events.length + " key changes, " + out.resolve(name + ".ch8"));
+        }
+
+        long getExecutions() {
+            return executions;
+        }
+    }
+
+    //kind and class of the faulting instruction, e.g. MEMORY_RANGE-DXYN, so one bug is one crash wherever it happens
+    static String signature(CpuFault fault){
+        int opcode = fault.getOpcode();
+        if(opcode < 0){  //PC_RANGE past the last byte
+            return fault.getKind().toString();
+        }
+        int op = Instruction.handler(opcode);
+        if(op != Instruction.UNKNOWN){
+            return fault.getKind() + "-" + Instruction.name(op);  //includes instructions of another variant
+        }
+        switch (opcode >>> 12){  //one class per family, and 0000 of memory no program filled
+            case 0x0: return fault.getKind() + (opcode == 0 ? "-0000" : "-0NNN");
+            case 0x5:
+            case 0x8:
+            case 0x9: return fault.getKind() + String.format("-%XXYN", opcode >>> 12);
+            default: return fault.getKind() + String.format("-%XXNN", opcode >>> 12);
+        }
+    }
+
+    private static byte[] delete(byte[] rom, int at, int length){  //keeps at least one byte
+        length = Math.min(length, Math.min(rom.length - at, rom.length - 1));
+        byte[] result = new byte[rom.length - length];
+        System.arraycopy(rom, 0, result, 0, at);
+        System.arraycopy(rom, at + length, result, at, rom.length - at - length);
+        return result;
+    }
+
+    private static long[] delete(long[] events, int at){
+        long[] result = new long[events.length - 1];
+        System.arraycopy(events, 0, result, 0, at);
+        System.arraycopy(events, at + 1, result, at, events.length - at - 1);
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 1){
+            System.err.println("usage: Fuzzer <rom|dir|pack> [--threads N] [--seconds N] [--cycles N] [--out DIR] [--variant chip8|schip|xochip] [--seed N]");
+            System.exit(2);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seconds = 10;
+        int cycles = 1000;
+        Path out = Paths.get("crashes");
+        Variant variant = Variant.CHIP8;
+        long seed = 1;
+        for(int i = 1; i < args.length; i++){
+            switch (args[i]){
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--seconds": seconds = Long.parseLong(args[++i]); break;
+                case "--cycles": cycles = Integer.parseInt(args[++i]); break;
+                case "--out": out = Paths.get(args[++i]); break;
+                case "--variant": variant = Variant.parse(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    System.err.println("unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        Fuzzer fuzzer = new Fuzzer(variant, seed, cycles, out);
+        for(RomLibrary.Rom rom : RomLibrary.open(Paths.get(args[0])).getRoms()){
+            byte[] data = new byte[rom.getLength()];
+            rom.getData().get(data);
+            fuzzer.addSeed(data);
+        }
+        if(fuzzer.getCorpusSize() == 0){
+            System.err.println("no " + variant + " ROMs in " + args[0]);
+            System.exit(2);
+        }
+        Files.createDirectories(out);
+
+        Worker[] workers = new Worker[threads];
+        Thread[] pool = new Thread[threads];
+        for(int i = 0; i < threads; i++){
+            workers[i] = fuzzer.new Worker(seed + i);
+            pool[i] = new Thread(workers[i], "chip8-fuzzer-" + i);
+            pool[i].setDaemon(true);
+            pool[i].start();
+        }
+        long start = System.nanoTime();
+        long last = 0;
+        for(long second = 1; second <= seconds; second++){
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime()));
+            long executions = 0;
+            for(Worker worker : workers){
+                executions += worker.getExecutions();
+            }
+            System.out.println(String.format("%ds: %d executions, %d/s, corpus %d, edges %d, crashes %d", second, executions,
+                    executions - last, fuzzer.getCorpusSize(), fuzzer.getEdges(), fuzzer.getCrashes()));
+            last = executions;
+        }
+        fuzzer.running = false;
+        for(Thread thread : pool){
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        long executions = 0;
+        for(Worker worker : workers){
+            executions += worker.getExecutions();
+        }
+        System.out.println(String.format("%d executions of up to %d instructions on %d threads, %.0f/s, %d crashes in %s",
+                executions, cycles, threads, executions * 1e9 / elapsed, fuzzer.getCrashes(), out));
+    }
+}
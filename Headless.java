@@ -0,0 +1,127 @@
+package com.company;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+
+public class Headless {  //runs a ROM without JavaFX, usage: Headless <rom> [--ips N] [--unthrottled] [--cycles N] [--trace] [--jit] [--seed N] [--replay LOG] [--metrics SECONDS] [--hotspots] [--no-idle] [--library DIR|PACK] [--variant chip8|schip|xochip] [--aot DIR] [--serve PORT] [--strict]
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1){
+            System.err.println("usage: Headless <rom> [--ips N] [--unthrottled] [--cycles N] [--trace] [--jit] [--seed N] [--replay LOG] [--metrics SECONDS] [--hotspots] [--no-idle] [--library DIR|PACK] [--variant chip8|schip|xochip] [--aot DIR] [--serve PORT] [--strict]");
+            System.exit(2);
+        }
+
+        Emulator emulator = new Emulator();
+        emulator.setBuzzer(Buzzer.nullSink());  //sound timing is still emulated and counted, nothing is played
+        long maxCycles = 0;
+        InputLog replay = null;
+        long metricsSeconds = 0;
+        boolean hotSpots = false;
+        String library = null;  //<rom> names a ROM by file name or hash in it
+        String aot = null;      //RomTranslator cache
+        int serve = -1;         //FrameServer port, frames out and keys in
+        for(int i = 1; i < args.length; i++){
+            switch (args[i]){
+                case "--ips": emulator.setInstructionsPerSecond(Integer.parseInt(args[++i])); break;
+                case "--unthrottled": emulator.setThrottled(false); break;
+                case "--cycles": maxCycles = Long.parseLong(args[++i]); break;
+                case "--trace": emulator.getMemory().setTracer(Tracer.STDOUT, Tracer.INSTRUCTIONS); break;
+                case "--jit": emulator.setJit(true); break;
+                case "--seed": emulator.getMemory().setSeed(Long.parseLong(args[++i])); break;
+                case "--replay": replay = InputLog.read(Paths.get(args[++i])); break;
+                case "--metrics": metricsSeconds = Long.parseLong(args[++i]); break;
+                case "--hotspots": hotSpots = true; break;
+                case "--library": library = args[++i]; break;
+                case "--no-idle": emulator.getMemory().setIdleDetection(false); break;
+                case "--variant": emulator.setVariant(Variant.parse(args[++i])); break;
+                case "--aot": aot = args[++i]; break;
+                case "--serve": serve = Integer.parseInt(args[++i]); break;
+                case "--strict": emulator.getMemory().setTracer(Tracer.FAULTS, Tracer.ERRORS); break;  //unknown opcodes fault too
+                default:
+                    System.err.println("unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if(replay != null){
+            emulator.setVariant(replay.getVariant());
+        }
+        RomLibrary.Rom rom = RomLibrary.resolve(args[0], library);
+        emulator.getMemory().loadImage(rom.image());
+        if(aot != null){
+            emulator.setTranslation(RomTranslator.load(Paths.get(aot), rom));
+        }
+        Metrics metrics = null;
+        if(metricsSeconds > 0 || hotSpots){  //counters are only attached when asked for, the final dump is printed either way
+            metrics = new Metrics(hotSpots);
+            emulator.setMetrics(metrics);
+            metrics.setBuzzer(emulator.getBuzzer());
+            metrics.setKeypad(emulator.getKeypad());
+            metrics.register("headless");
+            metrics.start(metricsSeconds > 0 ? System.out : null, metricsSeconds);
+        }
+
+        if(replay != null){  //seed, clock and run length come from the log, the run is always unthrottled
+            if(InputLog.checksum(rom.getData()) != replay.getRomChecksum()){
+                System.err.println("the log was recorded with a different ROM");
+                System.exit(2);
+            }
+            long start = System.nanoTime();
+            long hash;
+            try {
+                hash = replay.replay(emulator);
+            } catch (CpuFault fault) {  //e.g. a case written by Fuzzer
+                System.out.println(fault.getMessage() + " after " + emulator.getCycles() + " instructions");
+                System.exit(1);
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(emulator.getCycles() + " instructions, " + replay.getEventCount() + " key changes replayed in "
+                    + elapsed / 1_000_000 + " ms (" + (long) (emulator.getCycles() * 1e9 / Math.max(1, elapsed)) + " instructions/s)");
+            System.out.println(String.format("framebuffer hash %016x, recorded %016x: %s", hash, replay.getEndHash(),
+                    hash == replay.getEndHash() ? "identical" : "DIFFERENT"));
+            if(metrics != null){
+                emulator.flushMetrics();
+                System.out.print(metrics.dump());
+            }
+            System.exit(hash == replay.getEndHash() ? 0 : 1);
+        }
+
+        FrameServer server = null;
+        if(serve >= 0){
+            server = new FrameServer(new InetSocketAddress(serve));
+            FrameExchange display = server.addStream(emulator.getKeypad());
+            emulator.setDisplay(display);
+            if(metrics != null){
+                metrics.setDisplay(display);
+            }
+            server.start();
+            System.out.println("serving frames on port " + server.getPort());
+        }
+
+        long start = System.nanoTime();
+        try {
+            emulator.run(maxCycles);
+        } catch (CpuFault fault) {
+            System.out.println(fault.getMessage() + " after " + emulator.getCycles() + " instructions");
+            System.exit(1);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(emulator.getCycles() + " instructions in " + elapsed / 1_000_000 + " ms ("
+                + (long) (emulator.getCycles() * 1e9 / Math.max(1, elapsed)) + " instructions/s)");
+        if(metrics != null){
+            metrics.stop();
+            System.out.print(metrics.dump());
+        }
+        if(server != null){
+            System.out.println(server.getAccepted() + " viewers, " + server.getFramesSent() + " frames sent ("
+                    + server.getFramesSkipped() + " skipped), " + server.getBytesSent() + " bytes, " + server.getKeysReceived() + " keys received");
+            try {
+                server.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.company;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+//everything needed to reproduce a run: ROM checksum, variant, CXNN seed, clock rate and every key change by cycle number,
+//plus the cycle count and framebuffer hash at the end so a replay can prove it reached the same state
+public class InputLog {
+    private static final int MAGIC = 0x4338494E;  //"C8IN"
+    private static final int VERSION = 2;  //version 1 logs are refused, record them again
+
+    private final long romChecksum;
+    private final long seed;
+    private final int instructionsPerSecond;
+    private final Variant variant;
+    private long[] events = new long[64];  //cycle << 5 | key << 1 | pressed, in cycle order
+    private int count;
+    private long endCycles;
+    private long endHash;
+
+    public InputLog(long romChecksum, long seed, int instructionsPerSecond, Variant variant){
+        this.romChecksum = romChecksum;
+        this.seed = seed;
+        this.instructionsPerSecond = instructionsPerSecond;
+        this.variant = variant;
+    }
+
+    public static long checksum(byte[] rom){
+        return checksum(ByteBuffer.wrap(rom));
+    }
+
+    public static long checksum(ByteBuffer rom){  //position to limit, the buffer is not moved
+        CRC32 crc = new CRC32();
+        crc.update(rom.duplicate());
+        return crc.getValue();
+    }
+
+    public void add(long cycle, int key, boolean pressed){  //key state from cycle on, i.e. before instruction cycle runs
+        if(count == events.length){
+            events = Arrays.copyOf(events, count * 2);
+        }
+        events[count++] = cycle << 5 | key << 1 | (pressed ? 1 : 0);
+    }
+
+    void truncate(long cycle){  //forgets changes at or after cycle, used after a rewind
+        while(count > 0 && events[count - 1] >>> 5 >= cycle){
+            count--;
+        }
+    }
+
+    int keysAfter(){  //pressed keys as a mask once every event has been applied
+        int keys = 0;
+        for(int i = 0; i < count; i++){
+            int key = (int) (events[i] >>> 1) & 0xF;
+            keys = (events[i] & 1) != 0 ? keys | 1 << key : keys & ~(1 << key);
+        }
+        return keys;
+    }
+
+    public void finish(long cycles, long hash){
+        endCycles = cycles;
+        endHash = hash;
+    }
+
+    //runs a fresh emulator of the logged variant with the logged ROM already loaded to the logged end, unthrottled, and
+    //returns its framebuffer hash, equal to getEndHash() when the run was reproduced
+    public long replay(Emulator emulator){
+        if(emulator.getVariant() != variant){
+            throw new IllegalArgumentException("the log was recorded with " + variant + ", not " + emulator.getVariant());
+        }
+        emulator.setThrottled(false);
+        emulator.setInstructionsPerSecond(instructionsPerSecond);
+        emulator.getMemory().setSeed(seed);
+        Keypad keypad = emulator.getKeypad();
+        for(int i = 0; i < count; i++){
+            emulator.runCycles((events[i] >>> 5) - emulator.getCycles());
+            keypad.setKey((int) (events[i] >>> 1) & 0xF, (events[i] & 1) != 0);
+        }
+        emulator.runCycles(endCycles - emulator.getCycles());
+        return emulator.getFrameBuffer().hash();
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(romChecksum);
+            out.writeLong(seed);
+            out.writeInt(instructionsPerSecond);
+            out.writeByte(variant.ordinal());
+            out.writeLong(endCycles);
+            out.writeLong(endHash);
+            out.writeInt(count);
+            for(int i = 0; i < count; i++){
+                out.writeLong(events[i]);
+            }
+        }
+    }
+
+    public static InputLog read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if(in.readInt() != MAGIC){
+                throw new IOException(path + " is not an input log");
+            }
+            int version = in.readUnsignedShort();
+            if(version != VERSION){
+                throw new IOException("unsupported input log version " + version);
+            }
+            long romChecksum = in.readLong();
+            long seed = in.readLong();
+            int instructionsPerSecond = in.readInt();
+            int ordinal = in.readUnsignedByte();
+            if(ordinal >= Variant.values().length){
+                throw new IOException(path + ": bad variant " + ordinal);
+            }
+            InputLog log = new InputLog(romChecksum, seed, instructionsPerSecond, Variant.values()[ordinal]);
+            log.endCycles = in.readLong();
+            log.endHash = in.readLong();
+            log.count = in.readInt();
+            log.events = new long[Math.max(1, log.count)];
+            for(int i = 0; i < log.count; i++){
+                log.events[i] = in.readLong();
+            }
+            return log;
+        }
+    }
+
+    public long getRomChecksum() {
+        return romChecksum;
+    }
+
+    public Variant getVariant() {
+        return variant;
+    }
+
+    public int getEventCount() {
+        return count;
+    }
+
+    public long getEndCycles() {
+        return endCycles;
+    }
+
+    public long getEndHash() {
+        return endHash;
+    }
+}
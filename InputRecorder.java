@@ -0,0 +1,36 @@
+package com.company;
+
+import java.nio.ByteBuffer;
+
+public class InputRecorder implements Keypad.Listener {  //logs key changes of a live emulator by cycle number
+    private final Emulator emulator;
+    private final InputLog log;
+
+    public InputRecorder(Emulator emulator, ByteBuffer rom, long seed){  //before the first instruction runs
+        this.emulator = emulator;
+        this.log = new InputLog(InputLog.checksum(rom), seed, emulator.getInstructionsPerSecond(), emulator.getVariant());
+        emulator.getMemory().setSeed(seed);
+        emulator.getKeypad().setListener(this);
+    }
+
+    @Override
+    public void keyChanged(int key, boolean pressed) {  //on the thread that runs the emulator, between instructions
+        log.add(emulator.getCycles(), key, pressed);
+    }
+
+    public void rewound(){  //after Emulator.restore() went back in time: drop the undone changes, log the keys held now
+        log.truncate(emulator.getCycles());
+        int logged = log.keysAfter();
+        int held = emulator.getKeypad().getMask();
+        for(int key = 0; key < 16; key++){
+            if(((held ^ logged) & 1 << key) != 0){
+                log.add(emulator.getCycles(), key, (held & 1 << key) != 0);
+            }
+        }
+    }
+
+    public InputLog finish(){
+        log.finish(emulator.getCycles(), emulator.getFrameBuffer().hash());
+        return log;
+    }
+}
@@ -0,0 +1,162 @@
+package com.company;
+
+public final class Instruction {  //predecoded opcode: handler id plus operands extracted once per address
+    //handler ids, dense so Memory.execute() compiles to a single tableswitch
+    public static final int UNKNOWN = 0;
+    public static final int CLS = 1;        //00E0
+    public static final int RET = 2;        //00EE
+    public static final int JP = 3;         //1NNN
+    public static final int CALL = 4;       //2NNN
+    public static final int SE_NN = 5;      //3XNN
+    public static final int SNE_NN = 6;     //4XNN
+    public static final int SE_VY = 7;      //5XY0
+    public static final int LD_NN = 8;      //6XNN
+    public static final int ADD_NN = 9;     //7XNN
+    public static final int LD_VY = 10;     //8XY0
+    public static final int OR = 11;        //8XY1
+    public static final int AND = 12;       //8XY2
+    public static final int XOR = 13;       //8XY3
+    public static final int ADD_VY = 14;    //8XY4
+    public static final int SUB = 15;       //8XY5
+    public static final int SHR = 16;       //8XY6
+    public static final int SUBN = 17;      //8XY7
+    public static final int SHL = 18;       //8XYE
+    public static final int SNE_VY = 19;    //9XY0
+    public static final int LD_I = 20;      //ANNN
+    public static final int JP_V0 = 21;     //BNNN
+    public static final int RND = 22;       //CXNN
+    public static final int DRW = 23;       //DXYN
+    public static final int SKP = 24;       //EX9E
+    public static final int SKNP = 25;      //EXA1
+    public static final int LD_DT = 26;     //FX07
+    public static final int LD_KEY = 27;    //FX0A
+    public static final int SET_DT = 28;    //FX15
+    public static final int SET_ST = 29;    //FX18
+    public static final int ADD_I = 30;     //FX1E
+    public static final int FONT = 31;      //FX29
+    public static final int BCD = 32;       //FX33
+    public static final int STORE = 33;     //FX55
+    public static final int LOAD = 34;      //FX65
+    public static final int SCD = 35;       //00CN  SCHIP and XO-CHIP from here on, see Variant
+    public static final int SCU = 36;       //00DN  XO-CHIP
+    public static final int SCR = 37;       //00FB
+    public static final int SCL = 38;       //00FC
+    public static final int EXIT = 39;      //00FD
+    public static final int LORES = 40;     //00FE
+    public static final int HIRES = 41;     //00FF
+    public static final int SAVE = 42;      //5XY2  XO-CHIP
+    public static final int RESTORE = 43;   //5XY3  XO-CHIP
+    public static final int LD_I_LONG = 44; //F000 NNNN  XO-CHIP, the only 4 byte instruction
+    public static final int PLANE = 45;     //FN01  XO-CHIP
+    public static final int AUDIO = 46;     //F002  XO-CHIP
+    public static final int BIG_FONT = 47;  //FX30
+    public static final int PITCH = 48;     //FX3A  XO-CHIP
+    public static final int SAVE_FLAGS = 49; //FX75
+    public static final int LOAD_FLAGS = 50; //FX85
+    public static final int COUNT = 51;     //number of handler ids
+
+    private static final String[] NAMES = {
+        "????", "00E0", "00EE", "1NNN", "2NNN", "3XNN", "4XNN", "5XY0", "6XNN", "7XNN",
+        "8XY0", "8XY1", "8XY2", "8XY3", "8XY4", "8XY5", "8XY6", "8XY7", "8XYE", "9XY0",
+        "ANNN", "BNNN", "CXNN", "DXYN", "EX9E", "EXA1", "FX07", "FX0A", "FX15", "FX18",
+        "FX1E", "FX29", "FX33", "FX55", "FX65", "00CN", "00DN", "00FB", "00FC", "00FD",
+        "00FE", "00FF", "5XY2", "5XY3", "F000", "FN01", "F002", "FX30", "FX3A", "FX75",
+        "FX85"
+    };
+
+    private static final int[] ALU_OPS = {  //8XY* indexed by the low nibble
+        LD_VY, OR, AND, XOR, ADD_VY, SUB, SHR, SUBN,
+        UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, SHL, UNKNOWN
+    };
+
+    public final int opcode;
+    public final int op;
+    public final int x;     //0x0F00
+    public final int y;     //0x00F0
+    public final int n;     //0x000F
+    public final int nn;    //0x00FF
+    public final int nnn;   //0x0FFF
+
+    private Instruction(int opcode, int op){
+        this.opcode = opcode;
+        this.op = op;
+        this.x = (opcode & 0x0F00) >>> 8;
+        this.y = (opcode & 0x00F0) >>> 4;
+        this.n = opcode & 0x000F;
+        this.nn = opcode & 0x00FF;
+        this.nnn = opcode & 0x0FFF;
+    }
+
+    public static String name(int op){  //opcode family, e.g. "8XY4"
+        return NAMES[op];
+    }
+
+    public static Instruction decode(int opcode){
+        return new Instruction(opcode, handler(opcode));
+    }
+
+    public static int handler(int opcode){
+        switch (opcode >>> 12){
+            case 0x0:
+                switch (opcode & 0x0FF0){
+                    case 0x00C0: return SCD;
+                    case 0x00D0: return SCU;
+                }
+                switch (opcode){
+                    case 0x00E0: return CLS;
+                    case 0x00EE: return RET;
+                    case 0x00FB: return SCR;
+                    case 0x00FC: return SCL;
+                    case 0x00FD: return EXIT;
+                    case 0x00FE: return LORES;
+                    case 0x00FF: return HIRES;
+                    default: return UNKNOWN;
+                }
+            case 0x1: return JP;
+            case 0x2: return CALL;
+            case 0x3: return SE_NN;
+            case 0x4: return SNE_NN;
+            case 0x5:
+                switch (opcode & 0x000F){
+                    case 0x0: return SE_VY;
+                    case 0x2: return SAVE;
+                    case 0x3: return RESTORE;
+                    default: return UNKNOWN;
+                }
+            case 0x6: return LD_NN;
+            case 0x7: return ADD_NN;
+            case 0x8: return ALU_OPS[opcode & 0x000F];
+            case 0x9: return SNE_VY;
+            case 0xA: return LD_I;
+            case 0xB: return JP_V0;
+            case 0xC: return RND;
+            case 0xD: return DRW;
+            case 0xE:
+                switch (opcode & 0x00FF){
+                    case 0x9E: return SKP;
+                    case 0xA1: return SKNP;
+                    default: return UNKNOWN;
+                }
+            default:
+                if(opcode == 0xF000) return LD_I_LONG;
+                if(opcode == 0xF002) return AUDIO;
+                switch (opcode & 0x00FF){
+                    case 0x01: return PLANE;
+                    case 0x07: return LD_DT;
+                    case 0x0A: return LD_KEY;
+                    case 0x15: return SET_DT;
+                    case 0x18: return SET_ST;
+                    case 0x1E: return ADD_I;
+                    case 0x29: return FONT;
+                    case 0x30: return BIG_FONT;
+                    case 0x33: return BCD;
+                    case 0x3A: return PITCH;
+                    case 0x55: return STORE;
+                    case 0x65: return LOAD;
+                    case 0x75: return SAVE_FLAGS;
+                    case 0x85: return LOAD_FLAGS;
+                    default: return UNKNOWN;
+                }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.company;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+//HEX keypad 0x0 - 0xF. The UI thread post()s changes into a single-producer single-consumer ring, the emulation thread
+//drain()s them in order into one atomically updated mask before it runs instructions, so both sides stay lock-free
+public class Keypad {
+    private static final int QUEUE_SIZE = 256;  //power of two, many frames of key events
+
+    private final AtomicInteger keys = new AtomicInteger();  //bit n set while key n is held
+    private int tapped;         //keys pressed since the last timer tick, FX0A still sees a press released before it ran
+    private Listener listener;  //told about every change on the emulation thread, e.g. InputRecorder
+
+    private final int[] events = new int[QUEUE_SIZE];    //key << 1 | pressed
+    private final long[] posted = new long[QUEUE_SIZE];  //System.nanoTime() at post()
+    private volatile long head;  //next event to drain, written by the consumer only
+    private volatile long tail;  //next free slot, written by the producer only
+    private volatile long overflows;
+
+    private volatile long latencyCount;  //input-to-CPU latency, post() to drain(), written by the consumer only
+    private volatile long latencyTotalNanos;
+    private volatile long latencyMaxNanos;
+
+    public void post(int key, boolean pressed){  //producer side, e.g. the JavaFX thread
+        long t = tail;
+        if(t - head == QUEUE_SIZE){
+            overflows++;  //single producer, no lost update
+            return;
+        }
+        int slot = (int) t & (QUEUE_SIZE - 1);
+        events[slot] = key << 1 | (pressed ? 1 : 0);
+        posted[slot] = System.nanoTime();
+        tail = t + 1;  //volatile write publishes the slot
+    }
+
+    public void drain(){  //consumer side, the thread that runs the emulator, between instructions
+        long h = head;
+        long t = tail;
+        if(h == t){
+            return;
+        }
+        long now = System.nanoTime();
+        long total = latencyTotalNanos;
+        long max = latencyMaxNanos;
+        for(; h < t; h++){
+            int slot = (int) h & (QUEUE_SIZE - 1);
+            int event = events[slot];
+            long latency = now - posted[slot];
+            total += latency;
+            max = Math.max(max, latency);
+            setKey(event >>> 1, (event & 1) != 0);
+        }
+        latencyTotalNanos = total;
+        latencyMaxNanos = max;
+        latencyCount += t - head;
+        head = t;  //volatile write hands the slots back to the producer
+    }
+
+    public void setKey(int key, boolean pressed){  //immediate change on the emulation thread, replays and benchmarks use it
+        int bit = 1 << key;
+        int old;
+        int next;
+        do {
+            old = keys.get();
+            next = pressed ? old | bit : old & ~bit;
+        } while(!keys.compareAndSet(old, next));
+        if(old == next){
+            return;  //key repeat
+        }
+        if(pressed){
+            tapped |= bit;
+        }
+        if(listener != null){
+            listener.keyChanged(key, pressed);
+        }
+    }
+
+    public boolean isPressed(int key){  //EX9E / EXA1
+        if(key >>> 4 != 0){
+            throw new ArrayIndexOutOfBoundsException(key);
+        }
+        return (keys.get() & 1 << key) != 0;
+    }
+
+    public int takeKey(){  //FX0A: lowest held or just tapped key, or -1. A tap is taken once
+        int candidates = keys.get() | tapped;
+        if(candidates == 0){
+            return -1;
+        }
+        int key = Integer.numberOfTrailingZeros(candidates);
+        tapped &= ~(1 << key);
+        return key;
+    }
+
+    void reset(){  //nothing held or tapped and no listener call, the fuzzer starts every input like this
+        keys.set(0);
+        tapped = 0;
+    }
+
+    void expireTaps(){  //at every timer tick, a point fixed in emulated time so replays see the same taps
+        tapped = 0;
+    }
+
+    public int getMask() {
+        return keys.get();
+    }
+
+    public long getOverflows() {  //events dropped because the emulation thread did not drain in time
+        return overflows;
+    }
+
+    public long getLatencyCount() {
+        return latencyCount;
+    }
+
+    public long getAverageLatencyNanos() {
+        long count = latencyCount;
+        return count == 0 ? 0 : latencyTotalNanos / count;
+    }
+
+    public long getMaxLatencyNanos() {
+        return latencyMaxNanos;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public interface Listener {
+        void keyChanged(int key, boolean pressed);
+    }
+}
@@ -0,0 +1,525 @@
+package com.company;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+//runs many machines on the same ROM with machine state as struct-of-arrays. Consecutive machines sharing a pc form a
+//run and execute each instruction together, ALU ops as vector operations across the run. Runs split when control
+//flow diverges and merge again when neighbouring runs reach the same pc. Mirrors Memory instruction by instruction,
+//CHIP-8 only, SCHIP and XO-CHIP instructions are skipped as Memory does in that variant. The first machine to fault
+//ends run() with the CpuFault Memory would throw, getFaultedMachine() says which, and the engine cannot go on after it.
+public class LockstepEngine {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int MEMORY_SIZE = 4096;
+
+    private final int machines;
+    private final int[] v;        //V registers, register-major: v[r * machines + m], so a run is contiguous per register, int lanes kept in 0-255
+    private final int[] I;
+    private final int[] pc;
+    private final int[] sp;       //levels in use, as in Memory
+    private final int[] stack;    //level-major: stack[level * machines + m]
+    private final int[] delay;
+    private final int[] sound;
+    private final int[] keys;     //pressed keys as a 16 bit mask per machine
+    private final int[] tapped;   //keys pressed since the last timer tick, as in Keypad
+    private final byte[] memory;  //machine-major: memory[m * 4096 + address]
+    private final long[] rows;    //display, machine-major: rows[m * 32 + y], same layout as FrameBuffer
+    private final SeededRandom[] random;
+    private final boolean[] written = new boolean[MEMORY_SIZE];  //address written by any machine, code there must be compared per machine
+
+    private int[] runFrom;        //current runs as [from, to) machine ranges in machine order
+    private int[] runTo;
+    private int runCount;
+    private int[] nextFrom;       //runs being built for the next round
+    private int[] nextTo;
+    private int nextCount;
+
+    private int instructionsPerSecond = Emulator.DEFAULT_INSTRUCTIONS_PER_SECOND;
+    private long cycles;          //instructions executed by each machine
+    private long timerTicks;
+    private long nextTimerCycle;
+    private int faulted = -1;
+
+    public LockstepEngine(byte[] program, int machines, long seed){  //machine m gets CXNN seed seed + m, like BatchRunner
+        this.machines = machines;
+        v = new int[16 * machines];
+        I = new int[machines];
+        pc = new int[machines];
+        sp = new int[machines];
+        stack = new int[16 * machines];
+        delay = new int[machines];
+        sound = new int[machines];
+        keys = new int[machines];
+        tapped = new int[machines];
+        memory = new byte[MEMORY_SIZE * machines];
+        rows = new long[FrameBuffer.HEIGHT * machines];
+        random = new SeededRandom[machines];
+
+        Memory image = new Memory(new FrameBuffer(), new Keypad());  //fontset and program laid out as for one machine
+        image.loadProgram(program);
+        for(int address = 0; address < MEMORY_SIZE; address++){
+            memory[address] = (byte) image.read(address);
+        }
+        for(int m = 0; m < machines; m++){
+            System.arraycopy(memory, 0, memory, m * MEMORY_SIZE, MEMORY_SIZE);
+            pc[m] = 0x200;
+            random[m] = new SeededRandom(seed + m);
+        }
+
+        runFrom = new int[machines];
+        runTo = new int[machines];
+        nextFrom = new int[machines];
+        nextTo = new int[machines];
+        runFrom[0] = 0;
+        runTo[0] = machines;
+        runCount = 1;
+        scheduleTimer();
+    }
+
+    public void run(long count){  //every machine executes count more instructions
+        if(faulted >= 0){
+            throw new IllegalStateException("machine " + faulted + " faulted");
+        }
+        for(long c = 0; c < count; c++){
+            nextCount = 0;
+            for(int r = 0; r < runCount; r++){
+                executeRange(runFrom[r], runTo[r]);
+            }
+            int[] swap = runFrom; runFrom = nextFrom; nextFrom = swap;
+            swap = runTo; runTo = nextTo; nextTo = swap;
+            runCount = nextCount;
+
+            cycles++;
+            if(cycles >= nextTimerCycle){  //same schedule as Emulator
+                tickTimers();
+                timerTicks++;
+                scheduleTimer();
+            }
+        }
+    }
+
+    private void executeRange(int from, int to){
+        int address = pc[from];
+        int opcode = fetch(from, address);
+        if(to - from > 1 && (written[address] || written[address + 1])){  //code may differ between machines here
+            int m = from + 1;
+            while(m < to && fetch(m, address) == opcode){
+                m++;
+            }
+            if(m < to){
+                execute(from, m, opcode);
+                executeRange(m, to);
+                return;
+            }
+        }
+        execute(from, to, opcode);
+    }
+
+    private int fetch(int machine, int address){
+        if(address >= MEMORY_SIZE - 1){
+            throw fault(CpuFault.Kind.PC_RANGE, machine, address, -1);
+        }
+        int base = machine * MEMORY_SIZE;
+        return (memory[base + address] & 0xFF) << 8 | memory[base + address + 1] & 0xFF;
+    }
+
+    private void execute(int from, int to, int opcode){  //one instruction on machines [from, to), which share pc and opcode
+        int x = (opcode & 0x0F00) >>> 8;
+        int y = (opcode & 0x00F0) >>> 4;
+        int n = opcode & 0x000F;
+        int nn = opcode & 0x00FF;
+        int nnn = opcode & 0x0FFF;
+        int vx = x * machines;
+        int vy = y * machines;
+        int vf = 0xF * machines;
+
+        switch (Instruction.handler(opcode)){
+            case Instruction.CLS:
+                for(int m = from; m < to; m++){
+                    Arrays.fill(rows, m * FrameBuffer.HEIGHT, (m + 1) * FrameBuffer.HEIGHT, 0);
+                }
+                break;
+            case Instruction.RET:
+                for(int m = from; m < to; m++){
+                    if(sp[m] == 0){
+                        throw fault(CpuFault.Kind.STACK_UNDERFLOW, m, pc[m], -1);
+                    }
+                    sp[m]--;
+                    pc[m] = stack[sp[m] * machines + m] + 2;
+                }
+                split(from, to);
+                return;
+            case Instruction.JP:
+                Arrays.fill(pc, from, to, nnn);
+                merge(from, to);
+                return;
+            case Instruction.CALL:
+                for(int m = from; m < to; m++){
+                    if(sp[m] == stack.length / machines){
+                        throw fault(CpuFault.Kind.STACK_OVERFLOW, m, pc[m], -1);
+                    }
+                    stack[sp[m] * machines + m] = pc[m];
+                    sp[m]++;
+                }
+                Arrays.fill(pc, from, to, nnn);
+                merge(from, to);
+                return;
+            case Instruction.SE_NN:
+                skip(from, to, vx, -1, nn, true);
+                return;
+            case Instruction.SNE_NN:
+                skip(from, to, vx, -1, nn, false);
+                return;
+            case Instruction.SE_VY:
+                skip(from, to, vx, vy, 0, true);
+                return;
+            case Instruction.SNE_VY:
+                skip(from, to, vx, vy, 0, false);
+                return;
+            case Instruction.LD_NN:
+                Arrays.fill(v, vx + from, vx + to, nn);
+                break;
+            case Instruction.ADD_NN:
+                addImmediate(from, to, vx, nn);
+                break;
+            case Instruction.LD_VY:
+                System.arraycopy(v, vy + from, v, vx + from, to - from);
+                break;
+            case Instruction.OR:
+                binary(from, to, vx, vy, Instruction.OR);
+                break;
+            case Instruction.AND:
+                binary(from, to, vx, vy, Instruction.AND);
+                break;
+            case Instruction.XOR:
+                binary(from, to, vx, vy, Instruction.XOR);
+                break;
+            case Instruction.ADD_VY:
+                addRegister(from, to, vx, vy, vf);
+                break;
+            case Instruction.SUB:
+                subtract(from, to, vx, vy, vf, false);
+                break;
+            case Instruction.SUBN:
+                subtract(from, to, vx, vy, vf, true);
+                break;
+            case Instruction.SHR:
+                shift(from, to, vx, vf, false);
+                break;
+            case Instruction.SHL:
+                shift(from, to, vx, vf, true);
+                break;
+            case Instruction.LD_I:
+                Arrays.fill(I, from, to, nnn);
+                break;
+            case Instruction.JP_V0:
+                for(int m = from; m < to; m++){
+                    pc[m] = nnn + v[m];
+                }
+                split(from, to);
+                return;
+            case Instruction.RND:
+                for(int m = from; m < to; m++){
+                    v[vx + m] = random[m].nextByte() & nn;
+                }
+                break;
+            case Instruction.DRW:
+                for(int m = from; m < to; m++){
+                    checkRange(m, I[m], n);
+                    v[vf + m] = drawSprite(m, v[vx + m], v[vy + m], n);
+                }
+                break;
+            case Instruction.SKP:
+            case Instruction.SKNP: {
+                boolean pressedSkips = Instruction.handler(opcode) == Instruction.SKP;
+                for(int m = from; m < to; m++){
+                    pc[m] += isPressed(m, v[vx + m]) == pressedSkips ? 4 : 2;
+                }
+                split(from, to);
+                return;
+            }
+            case Instruction.LD_DT:
+                System.arraycopy(delay, from, v, vx + from, to - from);
+                break;
+            case Instruction.LD_KEY:
+                for(int m = from; m < to; m++){  //lowest held or tapped key, a tap is taken once
+                    int candidates = keys[m] | tapped[m];
+                    if(candidates != 0){
+                        int key = Integer.numberOfTrailingZeros(candidates);
+                        tapped[m] &= ~(1 << key);
+                        v[vx + m] = key;
+                        pc[m] += 2;
+                    }
+                }
+                split(from, to);
+                return;
+            case Instruction.SET_DT:
+                System.arraycopy(v, vx + from, delay, from, to - from);
+                break;
+            case Instruction.SET_ST:
+                System.arraycopy(v, vx + from, sound, from, to - from);
+                break;
+            case Instruction.ADD_I:
+                for(int m = from; m < to; m++){
+                    int value = v[vx + m];
+                    v[vf + m] = I[m] + value > 0xFFF ? 1 : 0;
+                    I[m] += value;
+                }
+                break;
+            case Instruction.FONT:
+                for(int m = from; m < to; m++){
+                    I[m] = v[vx + m] * 5;
+                }
+                break;
+            case Instruction.BCD:
+                for(int m = from; m < to; m++){
+                    int value = v[vx + m];
+                    checkRange(m, I[m], 3);
+                    write(m, I[m], value / 100);
+                    write(m, I[m] + 1, (value / 10) % 10);
+                    write(m, I[m] + 2, (value % 100) % 10);
+                }
+                break;
+            case Instruction.STORE:
+                for(int m = from; m < to; m++){
+                    checkRange(m, I[m], x + 1);
+                    for(int r = 0; r <= x; r++){
+                        write(m, I[m] + r, v[r * machines + m]);
+                    }
+                }
+                break;
+            case Instruction.LOAD:
+                for(int m = from; m < to; m++){
+                    checkRange(m, I[m], x + 1);
+                    for(int r = 0; r <= x; r++){
+                        v[r * machines + m] = read(m, I[m] + r);
+                    }
+                }
+                break;
+            default:  //unknown opcodes are skipped, as in Memory
+                break;
+        }
+        Arrays.fill(pc, from, to, pc[from] + 2);
+        merge(from, to);
+    }
+
+    //vector ALU over machines [from, to), register bases are r * machines
+
+    private void addImmediate(int from, int to, int vx, int nn){  //7XNN: sum - 256 when sum >= 256
+        for(int m = from; m < to; m += SPECIES.length()){
+            VectorMask<Integer> lanes = SPECIES.indexInRange(m, to);
+            IntVector sum = IntVector.fromArray(SPECIES, v, vx + m, lanes).add(nn);
+            sum.lanewise(VectorOperators.SUB, 256, sum.compare(VectorOperators.GE, 256)).intoArray(v, vx + m, lanes);
+        }
+    }
+
+    private void binary(int from, int to, int vx, int vy, int op){  //8XY1, 8XY2, 8XY3, operators stay constants so they are intrinsified
+        for(int m = from; m < to; m += SPECIES.length()){
+            VectorMask<Integer> lanes = SPECIES.indexInRange(m, to);
+            IntVector a = IntVector.fromArray(SPECIES, v, vx + m, lanes);
+            IntVector b = IntVector.fromArray(SPECIES, v, vy + m, lanes);
+            if(op == Instruction.OR){
+                a = a.or(b);
+            } else if(op == Instruction.AND){
+                a = a.and(b);
+            } else {
+                a = a.lanewise(VectorOperators.XOR, b);
+            }
+            a.intoArray(v, vx + m, lanes);
+        }
+    }
+
+    private void addRegister(int from, int to, int vx, int vy, int vf){  //8XY4: VF = carry, then VX = sum & 0xFF
+        IntVector zero = IntVector.zero(SPECIES);
+        for(int m = from; m < to; m += SPECIES.length()){
+            VectorMask<Integer> lanes = SPECIES.indexInRange(m, to);
+            IntVector sum = IntVector.fromArray(SPECIES, v, vx + m, lanes).add(IntVector.fromArray(SPECIES, v, vy + m, lanes));
+            zero.blend(1, sum.compare(VectorOperators.GT, 255)).intoArray(v, vf + m, lanes);
+            sum.and(0xFF).intoArray(v, vx + m, lanes);
+        }
+    }
+
+    private void subtract(int from, int to, int vx, int vy, int vf, boolean reverse){  //8XY5 VX - VY masked, 8XY7 VY - VX unmasked
+        IntVector zero = IntVector.zero(SPECIES);
+        for(int m = from; m < to; m += SPECIES.length()){
+            VectorMask<Integer> lanes = SPECIES.indexInRange(m, to);
+            IntVector a = IntVector.fromArray(SPECIES, v, vx + m, lanes);
+            IntVector b = IntVector.fromArray(SPECIES, v, vy + m, lanes);
+            if(reverse){
+                zero.blend(1, b.compare(VectorOperators.GT, a)).intoArray(v, vf + m, lanes);
+                b.sub(a).and(0xFF).intoArray(v, vx + m, lanes);
+            } else {
+                zero.blend(1, a.compare(VectorOperators.GT, b)).intoArray(v, vf + m, lanes);
+                a.sub(b).and(0xFF).intoArray(v, vx + m, lanes);
+            }
+        }
+    }
+
+    private void shift(int from, int to, int vx, int vf, boolean left){  //8XY6 / 8XYE, both from VX as read before VF is written
+        for(int m = from; m < to; m += SPECIES.length()){
+            VectorMask<Integer> lanes = SPECIES.indexInRange(m, to);
+            IntVector a = IntVector.fromArray(SPECIES, v, vx + m, lanes);
+            if(left){
+                a.lanewise(VectorOperators.LSHR, 7).intoArray(v, vf + m, lanes);
+                a.lanewise(VectorOperators.LSHL, 1).and(0xFF).intoArray(v, vx + m, lanes);
+            } else {
+                a.and(1).intoArray(v, vf + m, lanes);
+                a.lanewise(VectorOperators.LSHR, 1).intoArray(v, vx + m, lanes);
+            }
+        }
+    }
+
+    //3XNN, 4XNN, 5XY0, 9XY0 against register vy, or against nn when vy < 0. Runs only split when machines disagree
+    private void skip(int from, int to, int vx, int vy, int nn, boolean equal){
+        VectorOperators.Comparison comparison = equal ? VectorOperators.EQ : VectorOperators.NE;
+        int skipping = 0;
+        for(int m = from; m < to; m += SPECIES.length()){
+            VectorMask<Integer> lanes = SPECIES.indexInRange(m, to);
+            IntVector a = IntVector.fromArray(SPECIES, v, vx + m, lanes);
+            IntVector b = vy < 0 ? IntVector.broadcast(SPECIES, nn) : IntVector.fromArray(SPECIES, v, vy + m, lanes);
+            skipping += a.compare(comparison, b, lanes).trueCount();
+        }
+        if(skipping == 0 || skipping == to - from){
+            Arrays.fill(pc, from, to, pc[from] + (skipping == 0 ? 2 : 4));
+            merge(from, to);
+            return;
+        }
+        for(int m = from; m < to; m++){
+            int b = vy < 0 ? nn : v[vy + m];
+            pc[m] += (v[vx + m] == b) == equal ? 4 : 2;
+        }
+        split(from, to);
+    }
+
+    //run bookkeeping
+
+    private void merge(int from, int to){  //machines [from, to) still share one pc
+        if(nextCount > 0 && nextTo[nextCount - 1] == from && pc[nextFrom[nextCount - 1]] == pc[from]){
+            nextTo[nextCount - 1] = to;
+            return;
+        }
+        nextFrom[nextCount] = from;
+        nextTo[nextCount] = to;
+        nextCount++;
+    }
+
+    private void split(int from, int to){  //machines [from, to) may have diverged, regroup them by pc
+        int start = from;
+        for(int m = from + 1; m < to; m++){
+            if(pc[m] != pc[start]){
+                merge(start, m);
+                start = m;
+            }
+        }
+        merge(start, to);
+    }
+
+    private void tickTimers(){
+        for(int m = 0; m < machines; m += SPECIES.length()){
+            VectorMask<Integer> lanes = SPECIES.indexInRange(m, machines);
+            IntVector d = IntVector.fromArray(SPECIES, delay, m, lanes);
+            d.lanewise(VectorOperators.SUB, 1, d.compare(VectorOperators.GT, 0)).intoArray(delay, m, lanes);
+            IntVector s = IntVector.fromArray(SPECIES, sound, m, lanes);
+            s.lanewise(VectorOperators.SUB, 1, s.compare(VectorOperators.GT, 0)).intoArray(sound, m, lanes);
+        }
+        Arrays.fill(tapped, 0);
+    }
+
+    private void scheduleTimer(){
+        nextTimerCycle = ((timerTicks + 1) * instructionsPerSecond + Emulator.TIMER_HZ - 1) / Emulator.TIMER_HZ;
+    }
+
+    //per machine helpers, I based accesses are range checked before they start, as in Memory
+
+    private int drawSprite(int m, int vx, int vy, int n){
+        int x = vx & (FrameBuffer.WIDTH - 1);
+        int y = vy & (FrameBuffer.HEIGHT - 1);
+        int base = m * FrameBuffer.HEIGHT;
+        boolean collision = false;
+        for(int line = 0; line < n; line++){
+            long bits = Long.rotateRight((long) read(m, I[m] + line) << 56, x);
+            int row = base + ((y + line) & (FrameBuffer.HEIGHT - 1));
+            collision |= (rows[row] & bits) != 0;
+            rows[row] ^= bits;
+        }
+        return collision ? 1 : 0;
+    }
+
+    private boolean isPressed(int m, int key){
+        if(key >>> 4 != 0){
+            throw fault(CpuFault.Kind.KEY_RANGE, m, pc[m], key);
+        }
+        return (keys[m] & (1 << key)) != 0;
+    }
+
+    private void checkRange(int m, int address, int count){  //count bytes from address
+        if(address + count > MEMORY_SIZE){
+            throw fault(CpuFault.Kind.MEMORY_RANGE, m, pc[m], address + count - 1);
+        }
+    }
+
+    private CpuFault fault(CpuFault.Kind kind, int m, int at, int address){
+        faulted = m;
+        int opcode = at + 1 < MEMORY_SIZE ? read(m, at) << 8 | read(m, at + 1) : -1;
+        return new CpuFault(kind, at, opcode, address);
+    }
+
+    private int read(int m, int address){
+        return memory[m * MEMORY_SIZE + address] & 0xFF;
+    }
+
+    private void write(int m, int address, int value){
+        memory[m * MEMORY_SIZE + address] = (byte) value;
+        written[address] = true;
+    }
+
+    public void setKey(int machine, int key, boolean pressed){  //like Keypad.setKey(), a press is also a tap for FX0A
+        if(pressed){
+            tapped[machine] |= ~keys[machine] & 1 << key;
+            keys[machine] |= 1 << key;
+        } else {
+            keys[machine] &= ~(1 << key);
+        }
+    }
+
+    public void setInstructionsPerSecond(int instructionsPerSecond) {  //only before the first run(), like a fresh Emulator
+        this.instructionsPerSecond = instructionsPerSecond;
+        scheduleTimer();
+    }
+
+    public int getMachines() {
+        return machines;
+    }
+
+    public int getRunCount() {  //number of lockstep groups, 1 while every machine shares one pc
+        return runCount;
+    }
+
+    public long getCycles() {  //rounds every machine finished, a fault stops the engine inside the next one
+        return cycles;
+    }
+
+    public int getFaultedMachine() {  //-1 until a machine faults
+        return faulted;
+    }
+
+    public int getV(int machine, int register) {
+        return v[register * machines + machine];
+    }
+
+    public int getPc(int machine) {
+        return pc[machine];
+    }
+
+    public int getDelayTimer(int machine) {
+        return delay[machine];
+    }
+
+    public long getRow(int machine, int y) {
+        return rows[machine * FrameBuffer.HEIGHT + y];
+    }
+}
@@ -1,80 +1,189 @@
-package com.company;
-
-import javafx.animation.AnimationTimer;
-import javafx.application.Application;
-import javafx.scene.Scene;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.layout.BorderPane;
-import javafx.scene.paint.Color;
-import javafx.stage.Stage;
-
-import java.io.IOException;
-import java.util.concurrent.TimeUnit;
-
-import static javafx.scene.paint.Color.WHITE;
-
-public class Main extends Application {
-    private Stage mainStage;
-
-    private Screen screen;
-    private Memory memory;
-    private Keyboard keyboard;
-    private Scene mainScene;
-    BorderPane root;
-
-    public void initialize(){
-        //JavaFX gui initialization
-        root = new BorderPane();
-        mainScene = new Scene(root, 800, 400);
-        screen = new Screen();  //extended from JavaFX Canvas
-        root.getChildren().add(screen);
-        mainStage.setScene(mainScene);
-
-        //Emulation initialization
-        keyboard = new Keyboard(mainScene);  //HEX keyboard responsible for key input
-        memory = new Memory(screen, keyboard);  //memory, registers, opcode handling and other emulation stuff
-
-        //add key pressed and released listeners for mainScene
-        keyboard.onKeyPressed();
-        keyboard.onKeyReleased();
-
-        //screen.draw(10, 10, Color.BLUE);
-
-        try {
-            memory.loadProgram("./Maze.ch8");
-            //memory.loadProgram("D:\\Downloads\\Windows\\CHIP-8-v.1.2-win64\\games\\roms\\REVERSI");
-            //memory.loadProgram("D:\\Downloads\\Windows\\CHIP-8-v.1.2-win64\\games\\roms\\BC_test.ch8");
-            //memory.loadProgram("D:\\Downloads\\Windows\\CHIP-8-v.1.2-win64\\games\\roms\\chip8-test-rom-master\\test_opcode.ch8");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        new AnimationTimer(){
-            public void handle(long l) {
-                emulateCycle();
-            }
-        }.start();
-
-        mainStage.show();
-    }
-
-    public void emulateCycle(){
-        //Fetch opcode
-        memory.fetchOpcode();
-
-        //Decode opcode
-        memory.decodeOpcode();
-
-        //update timers
-        memory.updateTimers();
-    }
-
-    public static void main(String[] args) {
-        launch(args);
-    }
-
-    public void start(Stage primaryStage) {
-        mainStage = primaryStage;
-        initialize();
-    }
-}
+package com.company;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+
+import javax.sound.sampled.LineUnavailableException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static javafx.scene.paint.Color.WHITE;
+
+public class Main extends Application {
+    private static final int REWIND_FRAMES = 60 * 60;          //60 seconds of history at one entry per frame
+    private static final int REWIND_KEYFRAME_INTERVAL = 60;
+    private static final int REWIND_BYTES = 4 << 20;
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / Emulator.TIMER_HZ;
+
+    private Stage mainStage;
+
+    private Screen screen;
+    private Emulator emulator;
+    private Keyboard keyboard;
+    private RewindBuffer rewind;
+    private InputRecorder recorder;  //--record LOG, written on exit and replayed with Headless --replay LOG
+    private Path recordPath;
+    private FrameExchange frames;    //complete frames from the emulation thread to the FX pulse
+    private Metrics metrics;         //JMX com.company:type=Metrics,name=gui, --metrics SECONDS also dumps to stdout
+    private AudioLine audio;         //plays the emulator's Buzzer, null when there is no sound output or --mute
+    private Thread cpu;
+    private volatile boolean running;
+    private Scene mainScene;
+    BorderPane root;
+
+    public void initialize(){
+        //JavaFX gui initialization
+        root = new BorderPane();
+        mainScene = new Scene(root, 800, 400);
+        screen = new Screen();  //extended from JavaFX Canvas
+        root.getChildren().add(screen);
+        mainStage.setScene(mainScene);
+
+        //Emulation initialization
+        emulator = new Emulator();  //memory, registers, opcode handling and cpu/timer clocking, no JavaFX inside
+        rewind = new RewindBuffer(REWIND_FRAMES, REWIND_KEYFRAME_INTERVAL, REWIND_BYTES);
+        keyboard = new Keyboard(mainScene, emulator.getKeypad());  //HEX keyboard responsible for key input
+
+        //add key pressed and released listeners for mainScene
+        keyboard.onKeyPressed();
+        keyboard.onKeyReleased();
+
+        //screen.draw(10, 10, Color.BLUE);
+
+        try {
+            List<String> args = getParameters().getRaw();
+            int library = args.indexOf("--library");  //--rom then names a ROM by file name or hash in it
+            int path = args.indexOf("--rom");
+            RomLibrary.Rom rom = RomLibrary.resolve(path >= 0 && path + 1 < args.size() ? args.get(path + 1) : "./Maze.ch8",
+                    library >= 0 && library + 1 < args.size() ? args.get(library + 1) : null);
+            int variant = args.indexOf("--variant");  //chip8, schip or xochip
+            if(variant >= 0 && variant + 1 < args.size()){
+                emulator.setVariant(Variant.parse(args.get(variant + 1)));
+            }
+            emulator.getMemory().loadImage(rom.image());
+            int record = args.indexOf("--record");
+            if(record >= 0 && record + 1 < args.size()){
+                recordPath = Paths.get(args.get(record + 1));
+                recorder = new InputRecorder(emulator, rom.getData(), ThreadLocalRandom.current().nextLong());
+            }
+            Buzzer buzzer = new Buzzer();
+            if(!args.contains("--mute")){
+                try {
+                    audio = new AudioLine(buzzer);
+                } catch (LineUnavailableException | IllegalArgumentException e) {  //no mixer or no 16 bit 48khz line
+                    System.err.println("no audio: " + e.getMessage());
+                }
+            }
+            emulator.setBuzzer(audio != null ? buzzer : Buzzer.nullSink());
+            metrics = new Metrics(args.contains("--hotspots"));
+            emulator.setMetrics(metrics);
+            metrics.setBuzzer(emulator.getBuzzer());
+            metrics.setKeypad(emulator.getKeypad());
+            metrics.register("gui");
+            int dump = args.indexOf("--metrics");
+            if(dump >= 0 && dump + 1 < args.size()){
+                metrics.start(System.out, Long.parseLong(args.get(dump + 1)));
+            } else {
+                metrics.start(null, 0);
+            }
+            //emulator.loadProgram("D:\\Downloads\\Windows\\CHIP-8-v.1.2-win64\\games\\roms\\REVERSI");
+            //emulator.loadProgram("D:\\Downloads\\Windows\\CHIP-8-v.1.2-win64\\games\\roms\\BC_test.ch8");
+            //emulator.loadProgram("D:\\Downloads\\Windows\\CHIP-8-v.1.2-win64\\games\\roms\\chip8-test-rom-master\\test_opcode.ch8");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        frames = new FrameExchange();
+        if(metrics != null){
+            metrics.setDisplay(frames);
+        }
+        if(audio != null){
+            audio.start();
+        }
+        running = true;
+        cpu = new Thread(this::emulate, "chip8-cpu");  //emulation never waits for rendering and vice versa
+        cpu.setDaemon(true);
+        cpu.start();
+
+        new AnimationTimer(){
+            public void handle(long now) {  //vsync pulse: present the newest complete frame
+                screen.render(frames.take());
+            }
+        }.start();
+
+        mainStage.show();
+    }
+
+    private void emulate(){  //emulation thread: one frame of instructions, rewind and recording, then publish, at 60hz
+        long next = System.nanoTime();
+        while(running){
+            try {
+                if(keyboard.isRewinding()){
+                    rewind.rewind(emulator, 1);  //history plays backwards at the recording rate
+                    emulator.getKeypad().drain();
+                    if(recorder != null){
+                        recorder.rewound();
+                    }
+                } else {
+                    emulator.runUntil(System.nanoTime());
+                    rewind.record(emulator);
+                }
+            } catch (CpuFault fault) {  //the machine cannot go on, the window keeps the frame it stopped at
+                String message = fault.getMessage() + " after " + emulator.getCycles() + " instructions";
+                System.out.println(message);
+                frames.publish(emulator.getFrameBuffer());
+                Platform.runLater(() -> mainStage.setTitle(message));
+                return;
+            }
+            frames.publish(emulator.getFrameBuffer());
+            if(metrics != null){
+                metrics.frame(System.nanoTime());
+            }
+
+            next += FRAME_NANOS;
+            long wait = next - System.nanoTime();
+            if(wait > 0){
+                LockSupport.parkNanos(wait);
+            } else {
+                next = System.nanoTime();  //fell behind, do not try to catch up with a burst of frames
+            }
+        }
+    }
+
+    @Override
+    public void stop() throws IOException, InterruptedException {
+        running = false;
+        if(cpu != null){
+            cpu.join();
+        }
+        if(audio != null){
+            audio.stop();
+        }
+        if(metrics != null){
+            metrics.stop();
+        }
+        if(recorder != null){
+            recorder.finish().write(recordPath);
+        }
+    }
+
+    public static void main(String[] args) {
+        launch(args);
+    }
+
+    public void start(Stage primaryStage) {
+        mainStage = primaryStage;
+        initialize();
+    }
+}
@@ -1,384 +1,1084 @@
-package com.company;
-
-import javafx.scene.paint.Color;
-
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Random;
-
-public class Memory {
-    private int opcode;                   //current opcode
-    private int[] memory = new int[4096]; //memory
-    private int[] V = new int[16];        //general purpose registers from V0 to Vf
-    private int I;                        //index register I
-    private int pc;                       //program counter
-
-    private int[] stack = new int[16];    //remember current location before jump is performed, has 16 levels
-    private int sp;                       //stack pointer which remembers which level of stack is being used
-
-    private int delay_timer;              //when set above zero will count down to zero at 60hz
-    private int sound_timer;              //when set above zero will count down to zero at 60hz, todo: buzzer sound at zero
-
-    private Screen screen;                //JavaFX object for displaying the screen array
-    private Keyboard keyboard;            //keyboard object for input
-
-    public Memory(Screen screen, Keyboard keyboard){
-
-        //initialize system
-        pc = 0x200;  //Program counter starts at 0x200
-        opcode = 0;  //Reset current opcode
-        I = 0;       //Reset index register
-        sp = 0;      //Reset stack pointer
-        this.screen = screen;  //Clear display
-        this.keyboard = keyboard;
-
-
-        //Clear memory
-        for(int i = 0; i < memory.length; i++) {
-            memory[i] = 0;
-        }
-
-        // Reset stack and the V registers.
-        for (int i = 0; i < 16; i++) {
-            stack[i] = 0;
-            V[i] = 0;
-        }
-
-        //Load fontset
-        int[] chip8_fontset =
-        {
-            0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
-            0x20, 0x60, 0x20, 0x20, 0x70, // 1
-            0xF0, 0x10, 0xF0, 0x80, 0xF0, // 2
-            0xF0, 0x10, 0xF0, 0x10, 0xF0, // 3
-            0x90, 0x90, 0xF0, 0x10, 0x10, // 4
-            0xF0, 0x80, 0xF0, 0x10, 0xF0, // 5
-            0xF0, 0x80, 0xF0, 0x90, 0xF0, // 6
-            0xF0, 0x10, 0x20, 0x40, 0x40, // 7
-            0xF0, 0x90, 0xF0, 0x90, 0xF0, // 8
-            0xF0, 0x90, 0xF0, 0x10, 0xF0, // 9
-            0xF0, 0x90, 0xF0, 0x90, 0x90, // A
-            0xE0, 0x90, 0xE0, 0x90, 0xE0, // B
-            0xF0, 0x80, 0x80, 0x80, 0xF0, // C
-            0xE0, 0x90, 0x90, 0x90, 0xE0, // D
-            0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
-            0xF0, 0x80, 0xF0, 0x80, 0x80  // F
-        };
-        for(int i = 0; i < chip8_fontset.length; i++){
-            memory[i] = chip8_fontset[i];
-        }
-
-        //Reset timers
-        delay_timer = 0;
-        sound_timer = 0;
-    }
-
-    public void loadProgram(String pathString) throws IOException {
-        Path path = Paths.get(pathString);
-        byte[] program = Files.readAllBytes(path);
-        int[] programUnsigned = new int[program.length];
-
-        for(int i = 0; i < program.length; i++){
-            programUnsigned[i] = program[i] & 0xFF;
-            //System.out.println(programUnsigned[i]);
-            memory[i + 512] = programUnsigned[i];  //Font data occupies the first 512 bytes of the memory space
-        }
-    }
-
-    public void fetchOpcode(){
-        opcode = memory[pc] << 8 | memory[pc + 1];  //shift first part 8 places and combine with OR
-    }
-
-    public void updateTimers(){
-        if(delay_timer > 0){
-            --delay_timer;
-        }
-        if(sound_timer > 0){
-            if(sound_timer == 1) { System.out.println("BEEP!"); }  //
-            --sound_timer;
-        }
-    }
-
-    public void decodeOpcode() {  //these comments follow the same notation as opcode section in chip8 wikipedia page
-        System.out.println("0x" + String.format("%x", opcode));
-        switch (opcode & 0xF000) {
-            case 0x0000:
-                switch (opcode % 0x00FF){
-                    case 0x00E0: //Clears the screen
-                        screen.clear();
-                        screen.setGfx(new boolean[64*32]);
-                        pc += 2;
-                        return;
-                    case 0x00EE: //Returns from a subroutine
-                        pc = stack[sp];
-                        sp--;
-                        pc += 2;
-                        return;
-                    default:
-                        System.out.println("unknown opcode: " + opcode);
-                }
-            case 0x1000: //1NNN Jumps to address NNN
-                pc = opcode & 0x0FFF;
-                return;
-            case 0x2000: //2NNN calls subroutine at NNN
-                sp++;
-                stack[sp] = pc;
-                pc = opcode & 0x0FFF;
-                return;
-            case 0x3000: //3XNN Skips the next instruction if VX equals NN
-                if(V[(opcode & 0x0F00) >>> 8] == (opcode & 0x00FF)){
-                    pc += 4;
-                    return;
-                } else {
-                    pc += 2;
-                    return;
-                }
-            case 0x4000: //4XNN Skips the next instruction if VX doesn't equal NN
-                if(V[(opcode & 0x0F00) >>> 8] != (opcode & 0x00FF)){
-                    pc += 4;
-                    return;
-                } else {
-                    pc += 2;
-                    return;
-                }
-            case 0x5000: //5XY0 Skips the next instruction if VX equals VY
-                if(V[(opcode & 0x0F00) >>> 8] == V[(opcode & 0x00F0) >>> 4]){
-                    pc += 4;
-                    return;
-                } else {
-                    pc += 2;
-                    return;
-                }
-            case 0x6000: //6XNN Sets VX to NN
-                V[(opcode & 0x0F00) >>> 8] = (opcode & 0x00FF);
-                pc += 2;
-                return;
-            case 0x7000: //7XNN adds NN to VX
-                if((V[(opcode & 0x0F00) >>> 8]) + (opcode & 0x00FF) >= 256){
-                    V[(opcode & 0x0F00) >>> 8] = V[(opcode & 0x0F00) >>> 8] + (opcode & 0x00FF) - 256;
-                } else {
-                    V[(opcode & 0x0F00) >>> 8] += (opcode & 0x00FF);
-                }
-                //System.out.println("V" + ((opcode & 0x0F00) >>> 8) + " " +V[(opcode & 0x0F00) >>> 8]);
-                pc += 2;
-                return;
-            case 0x8000:
-                switch(opcode & 0x000F){
-                    case 0x0000:  //8XY0 Set VX to the value of VY
-                        V[(opcode & 0x0F00) >>> 8] = V[(opcode & 0x00F0) >>> 4];
-                        pc += 2;
-                        return;
-                    case 0x0001:  //8XY1 Sets VX to VX or VY (Bitwise OR operation)
-                        V[(opcode & 0x0F00) >>> 8] = V[(opcode & 0x0F00) >>> 8] | V[(opcode & 0x00F0) >>> 4];
-                        pc += 2;
-                        return;
-                    case 0x0002:  //8XY2 Sets VX to VX and VY (Bitwise AND operation)
-                        V[(opcode & 0x0F00) >>> 8] = V[(opcode & 0x0F00) >>> 8] & V[(opcode & 0x00F0) >>> 4];
-                        pc += 2;
-                        return;
-                    case 0x0003:  //8xy3 XOR Vx, Vy
-                        V[(opcode & 0x0F00) >>> 8] = V[(opcode & 0x0F00) >>> 8] ^ V[(opcode & 0x00F0) >>> 4];
-                        pc += 2;
-                        return;
-                    case 0x0004:  //8XY4 Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't
-                        if(V[(opcode & 0x0F00) >>> 8] + V[(opcode & 0x00F0) >>> 4] > 255){
-                            V[0xF] = 1;
-                            //V[(opcode & 0x0F00) >>> 8] = 255;
-                        } else {
-                            V[0xF] = 0;
-                            //V[(opcode & 0x0F00) >>> 8] += V[(opcode & 0x00F0) >>> 4];
-                        }
-                        V[(opcode & 0x0F00) >>> 8] = (V[(opcode & 0x0F00) >>> 8] + V[(opcode & 0x00F0) >>> 4]) & 0xFF;
-                        pc += 2;
-                        return;
-                    case 0x0005:  //8XY5 If Vx > Vy, then VF is set to 1, otherwise 0. Then Vy is subtracted from Vx.
-                        if(V[(opcode & 0x0F00) >>> 8] > V[(opcode & 0x00F0) >>> 4]){
-                            V[0xF] = 1;
-                        } else {
-                            V[0xF] = 0;
-                        }
-                        V[(opcode & 0x0F00) >>> 8] = (V[(opcode & 0x0F00) >>> 8] - V[(opcode & 0x00F0) >>> 4]) & 0xFF;
-                        pc += 2;
-                        return;
-                    case 0x0006:  //8xy6 If the least-significant bit of Vx is 1, then VF is set to 1, otherwise 0. Then Vx is divided by 2.
-                        if((V[(opcode & 0x0F00) >>> 8] & 0x1) == 1){
-                            V[0xF] = 1;
-                        } else {
-                            V[0xF] = 0;
-                        }
-                        V[(opcode & 0x0F00) >>> 8] = V[(opcode & 0x0F00) >>> 8] >>> 1;
-                        pc += 2;
-                        return;
-                    case 0x0007:  //8xy7 If Vy > Vx, then VF is set to 1, otherwise 0. Then Vx is subtracted from Vy, and the results stored in Vx.
-                        //KESKEN
-                        if(V[(opcode & 0x00F0) >>> 4] > V[(opcode & 0x0F00) >>> 8]){
-                            V[0xF] = 1;
-                        } else {
-                            V[0xF] = 0;
-                        }
-                        V[(opcode & 0x0F00) >>> 8] = V[(opcode & 0x00F0) >>> 4] - V[(opcode & 0x0F00) >>> 8];
-                        pc += 2;
-                        return;
-                    case 0x000E:  //8xyE Set VF to the most significant bit of VX. Then Vx is multiplied by 2.
-                        V[0xF] = V[(opcode & 0x0F00) >>> 8] >>> 7;
-                        V[(opcode & 0x0F00) >>> 8] = V[(opcode & 0x0F00) >>> 8] * 2;
-                        pc += 2;
-                        return;
-                    default:
-                        System.out.println("unknown opcode: " + opcode);
-                }
-            case 0x9000:  //9XY0 Skips the next instruction if VX doesn't equal VY.
-                if(V[(opcode & 0x0F00) >>> 8] != V[(opcode & 0x00F0) >>> 4]){
-                    pc += 4;
-                } else {
-                    pc += 2;
-                }
-                return;
-            case 0xA000: //ANNN Sets I to the address NNN.
-                this.I = opcode & 0x0FFF;
-                pc += 2;
-                return;
-            case 0xb000: //BNNN Jumps to the address NNN plus V0
-                pc = (opcode & 0x0FFF) + V[0];
-                return;
-            case 0xC000: //CXNN Sets VX to the result of a bitwise and operation on a random number(typically 0-255) and NN
-                int nn = opcode & 0x00FF;
-                V[(opcode & 0x0F00) >>> 8] = new Random().nextInt(255) & nn;
-                pc += 2;
-                return;
-            case 0xD000: {  //DXYN Draws a sprite at coordinate (VX, VY). Too long for a comment, read wiki.
-                int pixel;
-                int pixelIndex;
-                Color color;
-
-                for (int yline = 0; yline < (opcode & 0x000F); yline++){
-                    pixel = memory[I + yline];
-
-                    for(int xline = 0; xline < 8; xline++){
-                        int pixelX = V[(opcode & 0x0F00) >>> 8] + xline;
-                        int pixelY = V[(opcode & 0x00F0) >>> 4] + yline;
-
-                        pixelIndex = (pixelX + ((pixelY) * 64))  % (64 * 32);  //remainder is used when sprite needs to wrap around
-
-                        if((pixel & (0x80 >>> xline)) != 0){  //pixel of sprite is white
-                            color = Color.WHITE;
-
-                            if(!screen.getGfx()[pixelIndex]){ //pixel on display is black
-                                screen.getGfx()[pixelIndex] = true;
-                                screen.draw(pixelX, pixelY, color);
-                                V[0xF] = 0;
-                            }
-                        } else {  //pixel of sprite is black
-                            color = Color.BLACK;
-
-                            if(screen.getGfx()[pixelIndex]){ //pixel on display is white
-                                screen.getGfx()[pixelIndex] = false;
-                                screen.draw(pixelX, pixelY, color);
-                                V[0xF] = 1;
-                            }
-                        }
-                    }
-                }
-
-                pc += 2;
-                return;
-            }
-            case 0xE000:
-                switch(opcode & 0x00FF) {
-                    case 0x009E:  //EX9E Skips the nest instruction if key stored in VX is pressed
-                        if(keyboard.getKeys()[V[(opcode & 0x0F00) >>> 8]]){
-                            pc += 4;
-                        } else {
-                            pc += 2;
-                        }
-                        return;
-
-                    case 0x00A1:  //EXA1 Skips the nest instruction if key stored in VX isn't pressed
-                        if(!keyboard.getKeys()[V[(opcode & 0x0F00) >>> 8]]){
-                            pc += 4;
-                        } else {
-                            pc += 2;
-                        }
-                        return;
-                    default:
-                        System.out.println("unknown opcode: " + opcode);
-                }
-            case 0xF000:
-                switch(opcode & 0x00FF) {
-                    case 0x0007:  //FX07 Sets VX to the value of the delay timer.
-                        V[(opcode & 0x0F00) >>> 8] = delay_timer;
-                        pc += 2;
-                        return;
-                    case 0x000A:  //FX0A a key press is awaited, and then stored in VX
-                        if(keyboard.getPressed().isEmpty()){
-                            return;
-                        } else {
-                            V[(opcode & 0x0F00) >>> 8] = keyboard.getPressed().get(0);
-                            pc += 2;
-                            return;
-                        }
-                    case 0x0015:  //FX15 Sets the delay timer to VX
-                        delay_timer = V[(opcode & 0x0F00) >>> 8];
-                        pc += 2;
-                        return;
-                    case 0x0018:  //FX18 Sets the sound timer to VX.
-                        sound_timer = V[(opcode & 0x0F00) >>> 8];
-                        pc += 2;
-                        return;
-                    case 0x001E:  //FX1E the values of I and Vx are added, and the results are stored in I.
-                        if(I + V[(opcode & 0x0F00) >>> 8] > 0xFFF){
-                            V[0xF] = 1;
-                            I += V[(opcode & 0x0F00) >>> 8];
-                        } else {
-                            V[0xF] = 0;
-                            I += V[(opcode & 0x0F00) >>> 8];
-                        }
-                        pc += 2;
-                        return;
-                    case 0x0029:  //FX29 Set I = location of sprite for digit Vx.
-                        I = V[(opcode & 0x0F00) >>> 8] * 5;
-                        pc += 2;
-                        return;
-                    case 0x0033:  //FX33 Store BCD representation of Vx in memory locations I, I+1, and I+2.
-                        memory[I]     = (V[(opcode & 0x0F00) >>> 8] / 100);
-                        memory[I + 1] = ((V[(opcode & 0x0F00) >>> 8] / 10) % 10);
-                        memory[I + 2] = ((V[(opcode & 0x0F00) >>> 8] % 100) % 10);
-                        pc += 2;
-                        return;
-                    case 0x0055:  //FX55 Store registers V0 through Vx in memory starting at location I.
-                        for(int i = 0; i <= ((opcode & 0x0F00) >>> 8); i++){
-                            memory[I + i] = V[i];
-                        }
-                        pc += 2;
-                        return;
-                    case 0x0065:  //FX65 Fills V0 to VX (including VX) with values from memory starting at address I.
-                        for(int i = 0; i <= ((opcode & 0x0F00) >>> 8); i++){
-                            V[i] = memory[I + i];
-                        }
-                        pc += 2;
-                        return;
-                    default:
-                        System.out.println("unknown opcode: " + opcode);
-                }
-                return;
-            //More opcodes
-
-            default:
-                System.out.println("unknown opcode: " + opcode);
-        }
-    }
-
-    public int getOpcode() {
-        return opcode;
-    }
-
-    public void setOpcode(int opcode) {
-        this.opcode = opcode;
-    }
-
-    public int[] getV() {
-        return V;
-    }
-}
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class Memory {
+    static final int PAGE_SIZE = 256;     //copy-on-write unit shared with snapshots
+    static final int PAGES = 4096 / PAGE_SIZE;  //CHIP-8 and SCHIP, XO-CHIP has 256
+    static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];  //never written, every page starts as it
+    static final int BIG_FONT = 80;       //FX30 digits, 10 bytes each, after the 5 byte ones at 0
+    static final int IDLE_SPAN = 16;      //longest loop, in instructions, checked for idling
+    private static final int IDLE_PROBES = 4;     //iterations a loop gets to reach a fixed point
+    private static final int IDLE_BACKOFF = 256;  //closures of a busy loop ignored before it is probed again, doubling per miss
+    private static final int IDLE_MAX_MISSES = 8;
+    private static final int IDLE_SLOTS = 64;     //backoff entries, loops whose jumps collide share one
+
+    private int opcode;                   //current opcode
+    private Variant variant = Variant.CHIP8;
+    private boolean extended;             //SCHIP or XO-CHIP
+    private boolean xoChip;
+    private byte[][] pages = new byte[PAGES][];  //memory, address a is pages[a >>> 8][a & 0xFF]
+    private boolean[] shared = new boolean[PAGES];       //page also referenced by a snapshot, copied before the next store
+    private Instruction[][] decoded = new Instruction[PAGES][];  //predecoded instruction per address, paged like memory, null until first executed or after a write
+    private boolean[] decodedShared = new boolean[PAGES];        //page of a RomLibrary.Image table, copied before the first write
+    private byte[] V = new byte[16];      //general purpose registers from V0 to Vf, 8 bits wide, read them as V[x] & 0xFF
+    private int I;                        //index register I
+    private int pc;                       //program counter
+
+    private int[] stack = new int[16];    //remember current location before jump is performed, has 16 levels
+    private int sp;                       //levels in use, the next call goes to stack[sp]
+
+    private int delay_timer;              //when set above zero will count down to zero at 60hz
+    private int sound_timer;              //when set above zero will count down to zero at 60hz, the buzzer sounds meanwhile
+
+    private int planes = 1;               //XO-CHIP FN01, bit n selects plane n for drawing, clearing and scrolling
+    private byte[] flags = new byte[16];  //SCHIP FX75/FX85 user flags, 8 of them in SCHIP
+    private byte[] pattern = new byte[16]; //XO-CHIP F002 audio pattern, 128 one bit samples
+    private int pitch = 64;               //XO-CHIP FX3A, 4000 * 2^((pitch - 64) / 48) samples per second
+
+    private FrameBuffer frameBuffer;      //display state, rendered by Screen or read by headless runs
+    private Keypad keypad;                //key state for input
+    private RandomSource random = new SeededRandom(ThreadLocalRandom.current().nextLong());  //source for CXNN, see setSeed()
+
+    private BlockCompiler compiler;       //basic-block JIT, null runs everything through the interpreter
+
+    private Tracer tracer = Tracer.STDOUT; //debug output, kept out of the hot path unless traceLevel asks for it
+    private int traceLevel = Tracer.ERRORS;
+
+    private Coverage coverage;            //edges between executed addresses for the fuzzer, null = off
+    private int blockStart;               //address of the compiled block running, see at()
+    private int completed;                //instructions of the current step(budget, timerBudget) finished before a CpuFault
+
+    private long[] opCounts;              //executions per handler id while metrics are attached, flushed by Emulator
+    private int[] pcCounts;               //executions per address, only for hot-spot metrics
+    private long drawCalls;
+    private long pixelsFlipped;
+    private long keyWaits;                //FX0A executions that found no key
+    private long idleSkipped;             //instructions fast-forwarded by idle(), counted instead of executed
+
+    private boolean idleDetection = true;
+    private int idleJump = -1;            //address of a short backward jump or FX0A stall just executed, see idle()
+    private int[] idleBackoff = new int[IDLE_SLOTS];  //per jump address modulo IDLE_SLOTS, see idleSlot()
+    private byte[] idleMisses = new byte[IDLE_SLOTS];
+    private byte[] idleV = new byte[16];
+
+    public Memory(FrameBuffer frameBuffer, Keypad keypad){
+
+        //initialize system
+        pc = 0x200;  //Program counter starts at 0x200
+        opcode = 0;  //Reset current opcode
+        I = 0;       //Reset index register
+        sp = 0;      //Reset stack pointer
+        this.frameBuffer = frameBuffer;
+        this.keypad = keypad;
+        frameBuffer.clear();  //Clear display
+        Arrays.fill(pages, ZERO_PAGE);
+        Arrays.fill(shared, true);
+
+
+        // Reset stack and the V registers.
+        for (int i = 0; i < 16; i++) {
+            stack[i] = 0;
+            V[i] = 0;
+        }
+
+        //Load fontset
+        int[] chip8_fontset =
+        {
+            0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
+            0x20, 0x60, 0x20, 0x20, 0x70, // 1
+            0xF0, 0x10, 0xF0, 0x80, 0xF0, // 2
+            0xF0, 0x10, 0xF0, 0x10, 0xF0, // 3
+            0x90, 0x90, 0xF0, 0x10, 0x10, // 4
+            0xF0, 0x80, 0xF0, 0x10, 0xF0, // 5
+            0xF0, 0x80, 0xF0, 0x90, 0xF0, // 6
+            0xF0, 0x10, 0x20, 0x40, 0x40, // 7
+            0xF0, 0x90, 0xF0, 0x90, 0xF0, // 8
+            0xF0, 0x90, 0xF0, 0x10, 0xF0, // 9
+            0xF0, 0x90, 0xF0, 0x90, 0x90, // A
+            0xE0, 0x90, 0xE0, 0x90, 0xE0, // B
+            0xF0, 0x80, 0x80, 0x80, 0xF0, // C
+            0xE0, 0x90, 0x90, 0x90, 0xE0, // D
+            0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
+            0xF0, 0x80, 0xF0, 0x80, 0x80  // F
+        };
+        for(int i = 0; i < chip8_fontset.length; i++){
+            store(i, chip8_fontset[i]);
+        }
+        //SCHIP big digits, A-F as in XO-CHIP, loaded for every variant so a ROM image fits them all
+        int[] bigFont =
+        {
+            0x3C, 0x7E, 0xE7, 0xC3, 0xC3, 0xC3, 0xC3, 0xE7, 0x7E, 0x3C, // 0
+            0x18, 0x38, 0x58, 0x18, 0x18, 0x18, 0x18, 0x18, 0x18, 0x3C, // 1
+            0x3E, 0x7F, 0xC3, 0x06, 0x0C, 0x18, 0x30, 0x60, 0xFF, 0xFF, // 2
+            0x3C, 0x7E, 0xC3, 0x03, 0x0E, 0x0E, 0x03, 0xC3, 0x7E, 0x3C, // 3
+            0x06, 0x0E, 0x1E, 0x36, 0x66, 0xC6, 0xFF, 0xFF, 0x06, 0x06, // 4
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFC, 0xFE, 0x03, 0xC3, 0x7E, 0x3C, // 5
+            0x3E, 0x7C, 0xC0, 0xC0, 0xFC, 0xFE, 0xC3, 0xC3, 0x7E, 0x3C, // 6
+            0xFF, 0xFF, 0x03, 0x06, 0x0C, 0x18, 0x30, 0x60, 0x60, 0x60, // 7
+            0x3C, 0x7E, 0xC3, 0xC3, 0x7E, 0x7E, 0xC3, 0xC3, 0x7E, 0x3C, // 8
+            0x3C, 0x7E, 0xC3, 0xC3, 0x7F, 0x3F, 0x03, 0x03, 0x3E, 0x7C, // 9
+            0x7E, 0xFF, 0xC3, 0xC3, 0xC3, 0xFF, 0xFF, 0xC3, 0xC3, 0xC3, // A
+            0xFC, 0xFC, 0xC3, 0xC3, 0xFC, 0xFC, 0xC3, 0xC3, 0xFC, 0xFC, // B
+            0x3C, 0xFF, 0xC3, 0xC0, 0xC0, 0xC0, 0xC0, 0xC3, 0xFF, 0x3C, // C
+            0xFC, 0xFE, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xFE, 0xFC, // D
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, // E
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xC0, 0xC0  // F
+        };
+        for(int i = 0; i < bigFont.length; i++){
+            store(BIG_FONT + i, bigFont[i]);
+        }
+
+        //Reset timers
+        delay_timer = 0;
+        sound_timer = 0;
+    }
+
+    public void loadProgram(String pathString) throws IOException {
+        Path path = Paths.get(pathString);
+        loadProgram(Files.readAllBytes(path));
+    }
+
+    public void loadProgram(byte[] program){
+        loadProgram(ByteBuffer.wrap(program));
+    }
+
+    public void loadProgram(ByteBuffer program){  //from position to limit, e.g. a mapped file, without copying it first
+        int length = program.remaining();
+        if(512 + length > pages.length * PAGE_SIZE){
+            throw new IllegalArgumentException("a ROM of " + length + " bytes does not fit in " + variant + " memory");
+        }
+        for(int i = 0; i < length; i++){
+            store(i + 512, program.get(program.position() + i) & 0xFF);  //Font data occupies the first 512 bytes of the memory space
+        }
+        written(512, 512 + length - 1);
+    }
+
+    public void loadImage(RomLibrary.Image image){  //same as loadProgram() on a fresh machine, but shares the image copy-on-write
+        if(image.pages.length > pages.length){
+            throw new IllegalArgumentException("the ROM does not fit in " + variant + " memory");
+        }
+        written(0, pages.length * PAGE_SIZE - 1);
+        Arrays.fill(pages, ZERO_PAGE);
+        System.arraycopy(image.pages, 0, pages, 0, image.pages.length);
+        Arrays.fill(shared, true);
+        System.arraycopy(image.decoded, 0, decoded, 0, image.pages.length);
+        Arrays.fill(decodedShared, true);
+    }
+
+    //instruction set, memory size and display layout. Memory below the new size is kept, the display, the selected
+    //planes and the extended registers are reset, so call it before loading a ROM
+    public void setVariant(Variant variant){
+        int count = variant.memorySize / PAGE_SIZE;
+        if(count != pages.length){
+            written(0, pages.length * PAGE_SIZE - 1);
+            int old = pages.length;
+            pages = Arrays.copyOf(pages, count);
+            shared = Arrays.copyOf(shared, count);
+            decoded = Arrays.copyOf(decoded, count);
+            decodedShared = Arrays.copyOf(decodedShared, count);
+            for(int page = old; page < count; page++){
+                pages[page] = ZERO_PAGE;
+                shared[page] = true;
+            }
+            if(pcCounts != null){
+                pcCounts = new int[variant.memorySize];
+            }
+        }
+        this.variant = variant;
+        extended = variant != Variant.CHIP8;
+        xoChip = variant == Variant.XOCHIP;
+        frameBuffer.extend(variant.planes);
+        planes = 1;
+        Arrays.fill(flags, (byte) 0);
+        Arrays.fill(pattern, (byte) 0);
+        pitch = 64;
+    }
+
+    public Variant getVariant() {
+        return variant;
+    }
+
+    public void fetchOpcode(){
+        opcode = read(pc) << 8 | read(pc + 1);  //shift first part 8 places and combine with OR
+    }
+
+    public void updateTimers(){
+        if(delay_timer > 0){
+            --delay_timer;
+        }
+        if(sound_timer > 0){  //heard through Emulator.setBuzzer()
+            --sound_timer;
+        }
+    }
+
+    public void step(){  //fetch, decode and execute one instruction through the predecoded cache
+        if(pc >= (pages.length << 8) - 1){
+            throw fault(CpuFault.Kind.PC_RANGE, -1);
+        }
+        if(coverage != null){
+            coverage.visit(pc);
+        }
+        Instruction[] page = decoded[pc >>> 8];
+        Instruction ins = page != null ? page[pc & 0xFF] : null;
+        if(ins == null){
+            ins = decode(pc);
+        }
+        opcode = ins.opcode;
+        execute(ins);
+    }
+
+    private Instruction decode(int address){  //decodes and caches the instruction at address, its page is allocated on first use
+        int page = address >>> 8;
+        if(decoded[page] == null){
+            decoded[page] = new Instruction[PAGE_SIZE];
+            decodedShared[page] = false;
+        } else if(decodedShared[page]){
+            decoded[page] = decoded[page].clone();
+            decodedShared[page] = false;
+        }
+        Instruction ins = Instruction.decode(read(address) << 8 | read(address + 1));
+        decoded[page][address & 0xFF] = ins;
+        return ins;
+    }
+
+    private Instruction decoded(int address){  //cached instruction at address or null
+        Instruction[] page = decoded[address >>> 8];
+        return page != null ? page[address & 0xFF] : null;
+    }
+
+    //like step(), but may run a compiled block of up to budget instructions, returns instructions executed.
+    //blocks that read or set a timer must also fit in timerBudget, the instructions left before the next timer tick
+    public int step(int budget, int timerBudget){
+        completed = 0;
+        if(compiler != null && traceLevel < Tracer.INSTRUCTIONS){
+            CompiledBlock block = compiler.blockAt(pc);
+            if(block == null){
+                compiler.executedAt(pc, this);
+            } else if(compiler.lengthAt(pc) <= budget && (compiler.lengthAt(pc) <= timerBudget || !compiler.isTimedAt(pc))){
+                int start = pc;
+                blockStart = start;
+                int executed = block.run(this, V);  //moves pc on, translated blocks may end in a jump
+                if(opCounts != null){
+                    countBlock(start, executed);
+                }
+                if(idleJump >= 0){
+                    completed = executed;
+                    return executed + idle(budget - executed, timerBudget - executed);
+                }
+                return executed;
+            }
+        }
+        step();
+        if(idleJump >= 0){
+            completed = 1;
+            return 1 + idle(budget - 1, timerBudget - 1);
+        }
+        return 1;
+    }
+
+    //a loop whose instructions only touch V and pc, and read nothing but V, the delay timer and the keys, repeats the
+    //same iteration once it arrives at its head with the same V as last time, until the next timer tick or key change.
+    //Those iterations are counted instead of executed, the machine ends in the state it would have reached by running
+    //them. Emulator drains keys between calls only, so within one call timerBudget is the limit, or none at all while
+    //both timers are 0 and a tick changes nothing the loop can see. Returns the instructions executed or skipped
+    private int idle(int budget, int timerBudget){
+        int jump = idleJump;
+        idleJump = -1;
+        int limit = delay_timer == 0 && sound_timer == 0 ? budget : Math.min(budget, timerBudget);
+        if(limit <= 0 || traceLevel >= Tracer.INSTRUCTIONS){
+            return 0;
+        }
+        if(pc == jump){  //FX0A without a key, or a jump to itself: nothing changes at all
+            skipIdle(jump, limit, read(pc) >>> 4 == 0xF);
+            return limit;
+        }
+        int slot = idleSlot(jump);
+        if(idleBackoff[slot] > 0){
+            idleBackoff[slot]--;
+            return 0;
+        }
+
+        int head = pc;
+        int executed = 0;
+        int iteration = 0;
+        System.arraycopy(V, 0, idleV, 0, 16);
+        for(int probe = 0; probe < IDLE_PROBES; probe++){
+            while(executed < limit){
+                if(pc < head || pc > jump){  //the wait is over
+                    return executed;
+                }
+                Instruction ins = decoded(pc);
+                if(ins == null){
+                    ins = decode(pc);
+                }
+                if(!isIdle(ins.op)){  //does real work
+                    missedIdle(slot);
+                    return executed;
+                }
+                opcode = ins.opcode;
+                try {
+                    execute(ins);
+                } catch (CpuFault fault) {  //e.g. EXA1 with a key out of range, the probe's instructions ran
+                    completed += executed;
+                    throw fault;
+                }
+                idleJump = -1;
+                executed++;
+                iteration++;
+                if(pc == head){
+                    break;
+                }
+            }
+            if(executed == limit){
+                return executed;
+            }
+            if(Arrays.equals(V, idleV)){  //fixed point, every further iteration is the same
+                int skipped = (limit - executed) / iteration * iteration;
+                skipIdle(jump, skipped, false);
+                idleMisses[slot] = 0;
+                return executed + skipped;
+            }
+            System.arraycopy(V, 0, idleV, 0, 16);
+            iteration = 0;
+        }
+        missedIdle(slot);
+        return executed;
+    }
+
+    private static int idleSlot(int jump){  //instructions are mostly at even addresses
+        return (jump >>> 1) & (IDLE_SLOTS - 1);
+    }
+
+    private void missedIdle(int slot){
+        idleBackoff[slot] = IDLE_BACKOFF << idleMisses[slot];
+        if(idleMisses[slot] < IDLE_MAX_MISSES){
+            idleMisses[slot]++;
+        }
+    }
+
+    private void skipIdle(int jump, int skipped, boolean keyWait){
+        if(opCounts != null){
+            idleSkipped += skipped;
+            if(keyWait){
+                keyWaits += skipped;
+            }
+            if(pcCounts != null){
+                pcCounts[jump] += skipped;
+            }
+        }
+    }
+
+    private static boolean isIdle(int op){  //only V and pc change, only V, the delay timer and the keys are read
+        switch (op){
+            case Instruction.JP:
+            case Instruction.SE_NN:
+            case Instruction.SNE_NN:
+            case Instruction.SE_VY:
+            case Instruction.SNE_VY:
+            case Instruction.LD_NN:
+            case Instruction.ADD_NN:
+            case Instruction.LD_VY:
+            case Instruction.OR:
+            case Instruction.AND:
+            case Instruction.XOR:
+            case Instruction.ADD_VY:
+            case Instruction.SUB:
+            case Instruction.SHR:
+            case Instruction.SUBN:
+            case Instruction.SHL:
+            case Instruction.LD_DT:
+            case Instruction.SKP:
+            case Instruction.SKNP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public void decodeOpcode() {  //executes the opcode set by fetchOpcode() or setOpcode()
+        Instruction ins = decoded(pc);
+        if(ins == null || ins.opcode != opcode){
+            ins = Instruction.decode(opcode);
+        }
+        execute(ins);
+    }
+
+    private void execute(Instruction ins) {  //these comments follow the same notation as opcode section in chip8 wikipedia page
+        if(traceLevel >= Tracer.INSTRUCTIONS){
+            tracer.instruction(pc, ins.opcode);
+        }
+        if(opCounts != null){
+            opCounts[ins.op]++;
+            if(pcCounts != null){
+                pcCounts[pc]++;
+            }
+        }
+        switch (ins.op) {
+            case Instruction.CLS: //00E0 Clears the screen
+                clearScreen();
+                pc += 2;
+                return;
+            case Instruction.RET: //00EE Returns from a subroutine
+                ret();
+                return;
+            case Instruction.JP: //1NNN Jumps to address NNN
+                jump(pc, ins.nnn);
+                return;
+            case Instruction.CALL: //2NNN calls subroutine at NNN
+                call(pc, ins.nnn);
+                return;
+            case Instruction.SE_NN: //3XNN Skips the next instruction if VX equals NN
+                pc += (V[ins.x] & 0xFF) == ins.nn ? skip() : 2;
+                return;
+            case Instruction.SNE_NN: //4XNN Skips the next instruction if VX doesn't equal NN
+                pc += (V[ins.x] & 0xFF) != ins.nn ? skip() : 2;
+                return;
+            case Instruction.SE_VY: //5XY0 Skips the next instruction if VX equals VY
+                pc += V[ins.x] == V[ins.y] ? skip() : 2;
+                return;
+            case Instruction.LD_NN: //6XNN Sets VX to NN
+                V[ins.x] = (byte) ins.nn;
+                pc += 2;
+                return;
+            case Instruction.ADD_NN: //7XNN adds NN to VX, wrapping at 256 without touching VF
+                V[ins.x] += ins.nn;
+                pc += 2;
+                return;
+            case Instruction.LD_VY:  //8XY0 Set VX to the value of VY
+                V[ins.x] = V[ins.y];
+                pc += 2;
+                return;
+            case Instruction.OR:  //8XY1 Sets VX to VX or VY (Bitwise OR operation)
+                V[ins.x] |= V[ins.y];
+                pc += 2;
+                return;
+            case Instruction.AND:  //8XY2 Sets VX to VX and VY (Bitwise AND operation)
+                V[ins.x] &= V[ins.y];
+                pc += 2;
+                return;
+            case Instruction.XOR:  //8xy3 XOR Vx, Vy
+                V[ins.x] ^= V[ins.y];
+                pc += 2;
+                return;
+            case Instruction.ADD_VY: {  //8XY4 Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't
+                int sum = (V[ins.x] & 0xFF) + (V[ins.y] & 0xFF);
+                V[0xF] = (byte) (sum >>> 8);
+                V[ins.x] = (byte) sum;
+                pc += 2;
+                return;
+            }
+            case Instruction.SUB: {  //8XY5 If Vx > Vy, then VF is set to 1, otherwise 0. Then Vy is subtracted from Vx.
+                int vx = V[ins.x] & 0xFF;
+                int vy = V[ins.y] & 0xFF;
+                V[0xF] = (byte) (vx > vy ? 1 : 0);
+                V[ins.x] = (byte) (vx - vy);
+                pc += 2;
+                return;
+            }
+            case Instruction.SHR: {  //8xy6 If the least-significant bit of Vx is 1, then VF is set to 1, otherwise 0. Then Vx is divided by 2.
+                int vx = V[ins.x] & 0xFF;
+                V[0xF] = (byte) (vx & 0x1);
+                V[ins.x] = (byte) (vx >>> 1);
+                pc += 2;
+                return;
+            }
+            case Instruction.SUBN: {  //8xy7 If Vy > Vx, then VF is set to 1, otherwise 0. Then Vx is subtracted from Vy, and the results stored in Vx.
+                int vx = V[ins.x] & 0xFF;
+                int vy = V[ins.y] & 0xFF;
+                V[0xF] = (byte) (vy > vx ? 1 : 0);
+                V[ins.x] = (byte) (vy - vx);
+                pc += 2;
+                return;
+            }
+            case Instruction.SHL: {  //8xyE Set VF to the most significant bit of VX. Then Vx is multiplied by 2.
+                int vx = V[ins.x] & 0xFF;
+                V[0xF] = (byte) (vx >>> 7);
+                V[ins.x] = (byte) (vx << 1);
+                pc += 2;
+                return;
+            }
+            case Instruction.SNE_VY:  //9XY0 Skips the next instruction if VX doesn't equal VY.
+                pc += V[ins.x] != V[ins.y] ? skip() : 2;
+                return;
+            case Instruction.LD_I: //ANNN Sets I to the address NNN.
+                this.I = ins.nnn;
+                pc += 2;
+                return;
+            case Instruction.JP_V0: //BNNN Jumps to the address NNN plus V0
+                jumpOffset(ins.nnn);
+                return;
+            case Instruction.RND: //CXNN Sets VX to the result of a bitwise and operation on a random number(typically 0-255) and NN
+                V[ins.x] = (byte) randomByte(ins.nn);
+                pc += 2;
+                return;
+            case Instruction.DRW:  //DXYN Draws a sprite at coordinate (VX, VY). Too long for a comment, read wiki.
+                V[0xF] = (byte) drawSprite(V[ins.x] & 0xFF, V[ins.y] & 0xFF, ins.n);
+                pc += 2;
+                return;
+            case Instruction.SKP:  //EX9E Skips the nest instruction if key stored in VX is pressed
+                pc += isPressed(V[ins.x] & 0xFF) ? skip() : 2;
+                return;
+            case Instruction.SKNP:  //EXA1 Skips the nest instruction if key stored in VX isn't pressed
+                pc += !isPressed(V[ins.x] & 0xFF) ? skip() : 2;
+                return;
+            case Instruction.LD_DT:  //FX07 Sets VX to the value of the delay timer.
+                V[ins.x] = (byte) delay_timer;
+                pc += 2;
+                return;
+            case Instruction.LD_KEY: {  //FX0A a key press is awaited, and then stored in VX
+                int key = keypad.takeKey();
+                if(key >= 0){
+                    V[ins.x] = (byte) key;
+                    pc += 2;
+                } else {
+                    if(opCounts != null){
+                        keyWaits++;
+                    }
+                    if(idleDetection){
+                        idleJump = pc;  //waits until the keys change, see idle()
+                    }
+                }
+                return;
+            }
+            case Instruction.SET_DT:  //FX15 Sets the delay timer to VX
+                delay_timer = V[ins.x] & 0xFF;
+                pc += 2;
+                return;
+            case Instruction.SET_ST:  //FX18 Sets the sound timer to VX.
+                sound_timer = V[ins.x] & 0xFF;
+                pc += 2;
+                return;
+            case Instruction.ADD_I:  //FX1E the values of I and Vx are added, and the results are stored in I.
+                V[0xF] = (byte) addToI(V[ins.x] & 0xFF);
+                pc += 2;
+                return;
+            case Instruction.FONT:  //FX29 Set I = location of sprite for digit Vx.
+                I = (V[ins.x] & 0xFF) * 5;
+                pc += 2;
+                return;
+            case Instruction.BCD: {  //FX33 Store BCD representation of Vx in memory locations I, I+1, and I+2.
+                int vx = V[ins.x] & 0xFF;
+                checkRange(I, 3);
+                store(I,     vx / 100);
+                store(I + 1, (vx / 10) % 10);
+                store(I + 2, (vx % 100) % 10);
+                written(I, I + 2);
+                pc += 2;
+                return;
+            }
+            case Instruction.STORE:  //FX55 Store registers V0 through Vx in memory starting at location I.
+                checkRange(I, ins.x + 1);
+                for(int i = 0; i <= ins.x; i++){
+                    store(I + i, V[i]);
+                }
+                written(I, I + ins.x);
+                pc += 2;
+                return;
+            case Instruction.LOAD:  //FX65 Fills V0 to VX (including VX) with values from memory starting at address I.
+                checkRange(I, ins.x + 1);
+                for(int i = 0; i <= ins.x; i++){
+                    V[i] = (byte) read(I + i);
+                }
+                pc += 2;
+                return;
+
+            //SCHIP, unknown to CHIP-8
+            case Instruction.SCD:  //00CN Scrolls the selected planes down N rows
+                if(!extended) break;
+                frameBuffer.scrollDown(ins.n, planes);
+                pc += 2;
+                return;
+            case Instruction.SCR:  //00FB Scrolls right 4 pixels
+                if(!extended) break;
+                frameBuffer.scrollRight(planes);
+                pc += 2;
+                return;
+            case Instruction.SCL:  //00FC Scrolls left 4 pixels
+                if(!extended) break;
+                frameBuffer.scrollLeft(planes);
+                pc += 2;
+                return;
+            case Instruction.EXIT:  //00FD Stops the interpreter, here it stays on this instruction
+                if(!extended) break;
+                if(idleDetection){
+                    idleJump = pc;
+                }
+                return;
+            case Instruction.LORES:  //00FE 64x32, clears the display
+            case Instruction.HIRES:  //00FF 128x64, clears the display
+                if(!extended) break;
+                frameBuffer.setHires(ins.op == Instruction.HIRES);
+                pc += 2;
+                return;
+            case Instruction.BIG_FONT:  //FX30 Set I = location of the 8x10 sprite for digit Vx
+                if(!extended) break;
+                I = BIG_FONT + (V[ins.x] & 0xF) * 10;
+                pc += 2;
+                return;
+            case Instruction.SAVE_FLAGS:  //FX75 Stores V0 through Vx in the user flags
+                if(!extended) break;
+                System.arraycopy(V, 0, flags, 0, ins.x + 1);
+                pc += 2;
+                return;
+            case Instruction.LOAD_FLAGS:  //FX85 Fills V0 through Vx from the user flags
+                if(!extended) break;
+                System.arraycopy(flags, 0, V, 0, ins.x + 1);
+                pc += 2;
+                return;
+
+            //XO-CHIP
+            case Instruction.SCU:  //00DN Scrolls the selected planes up N rows
+                if(!xoChip) break;
+                frameBuffer.scrollUp(ins.n, planes);
+                pc += 2;
+                return;
+            case Instruction.SAVE: {  //5XY2 Stores Vx through Vy, in either order, in memory starting at I. I is unchanged
+                if(!xoChip) break;
+                int step = ins.x <= ins.y ? 1 : -1;
+                int count = Math.abs(ins.y - ins.x) + 1;
+                checkRange(I, count);
+                for(int i = 0; i < count; i++){
+                    store(I + i, V[ins.x + i * step]);
+                }
+                written(I, I + count - 1);
+                pc += 2;
+                return;
+            }
+            case Instruction.RESTORE: {  //5XY3 Fills Vx through Vy, in either order, from memory starting at I
+                if(!xoChip) break;
+                int step = ins.x <= ins.y ? 1 : -1;
+                int count = Math.abs(ins.y - ins.x) + 1;
+                checkRange(I, count);
+                for(int i = 0; i < count; i++){
+                    V[ins.x + i * step] = (byte) read(I + i);
+                }
+                pc += 2;
+                return;
+            }
+            case Instruction.LD_I_LONG:  //F000 NNNN Sets I to the 16 bit address in the next two bytes
+                if(!xoChip) break;
+                checkRange(pc + 2, 2);
+                I = read(pc + 2) << 8 | read(pc + 3);
+                pc += 4;
+                return;
+            case Instruction.PLANE:  //FN01 Selects the planes drawn, cleared and scrolled, N is a bit mask
+                if(!xoChip) break;
+                planes = ins.x & 3;
+                pc += 2;
+                return;
+            case Instruction.AUDIO:  //F002 Loads the 16 byte audio pattern from I
+                if(!xoChip) break;
+                checkRange(I, pattern.length);
+                for(int i = 0; i < pattern.length; i++){
+                    pattern[i] = (byte) read(I + i);
+                }
+                pc += 2;
+                return;
+            case Instruction.PITCH:  //FX3A Sets the audio pitch to Vx
+                if(!xoChip) break;
+                pitch = V[ins.x] & 0xFF;
+                pc += 2;
+                return;
+            default:
+                break;
+        }
+        unknownOpcode();  //unknown opcodes, and those of another variant, are reported and skipped
+        pc += 2;
+    }
+
+    private int skip(){  //bytes to the instruction after next, XO-CHIP skips F000 NNNN as a whole
+        return xoChip && pc + 3 < pages.length << 8 && read(pc + 2) == 0xF0 && read(pc + 3) == 0x00 ? 6 : 4;
+    }
+
+    private void written(int from, int to){  //every store into memory must end here to keep the decode cache and compiled blocks valid
+        if(compiler != null){
+            compiler.invalidate(from, to);
+        }
+        if(from > 0){
+            from--;  //the instruction starting one byte earlier covers the first byte too
+        }
+        for(int page = from >>> 8; page <= to >>> 8; page++){
+            int first = Math.max(from, page * PAGE_SIZE) & 0xFF;
+            int last = Math.min(to, page * PAGE_SIZE + PAGE_SIZE - 1) & 0xFF;
+            if(decoded[page] == null){
+                continue;
+            }
+            if(first == 0 && last == PAGE_SIZE - 1){  //whole page, e.g. a restore, is decoded again when it runs
+                decoded[page] = null;
+                decodedShared[page] = false;
+                continue;
+            }
+            if(decodedShared[page]){
+                decoded[page] = decoded[page].clone();
+                decodedShared[page] = false;
+            }
+            Arrays.fill(decoded[page], first, last + 1, null);
+        }
+    }
+
+    //helpers shared by the interpreter and blocks generated by BlockCompiler
+
+    int drawSprite(int vx, int vy, int n){  //XORs an 8xN sprite from I onto the display, wrapping at the edges, returns the new VF
+        if(extended){
+            return drawExtended(vx, vy, n);
+        }
+        checkRange(I, n);
+        int x = vx & (FrameBuffer.WIDTH - 1);
+        int y = vy & (FrameBuffer.HEIGHT - 1);
+        boolean collision = false;
+        int flipped = 0;
+
+        for(int line = 0; line < n; line++){
+            long bits = Long.rotateRight((long) read(I + line) << 56, x);  //sprite byte moved to column x
+            collision |= frameBuffer.xorRow((y + line) & (FrameBuffer.HEIGHT - 1), bits);
+            flipped += Long.bitCount(bits);
+        }
+        if(opCounts != null){
+            drawCalls++;
+            pixelsFlipped += flipped;
+        }
+        return collision ? 1 : 0;
+    }
+
+    //SCHIP and XO-CHIP: either resolution, a 16x16 sprite of 32 bytes for n = 0, once per selected plane with each
+    //plane's sprite following the previous one's in memory
+    private int drawExtended(int vx, int vy, int n){
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+        int x = vx & (width - 1);
+        int y = vy & (height - 1);
+        int lines = n == 0 ? 16 : n;
+        checkRange(I, (n == 0 ? 32 : n) * Integer.bitCount(planes & ((1 << frameBuffer.getPlanes()) - 1)));
+        int address = I;
+        boolean collision = false;
+        int flipped = 0;
+
+        for(int plane = 0; plane < frameBuffer.getPlanes(); plane++){
+            if((planes & 1 << plane) == 0){
+                continue;
+            }
+            for(int line = 0; line < lines; line++){
+                long sprite;  //left aligned
+                if(n == 0){
+                    sprite = (long) (read(address) << 8 | read(address + 1)) << 48;
+                    address += 2;
+                } else {
+                    sprite = (long) read(address++) << 56;
+                }
+                long left;
+                long right;
+                if(width == FrameBuffer.WIDTH){
+                    left = Long.rotateRight(sprite, x);
+                    right = 0;
+                } else if(x < 64){  //128 bit rotate of the sprite across both words
+                    left = sprite >>> x;
+                    right = x == 0 ? 0 : sprite << (64 - x);
+                } else {
+                    right = sprite >>> (x - 64);
+                    left = x == 64 ? 0 : sprite << (128 - x);
+                }
+                collision |= frameBuffer.xorRow(plane, (y + line) & (height - 1), left, right);
+                flipped += Long.bitCount(sprite);
+            }
+        }
+        if(opCounts != null){
+            drawCalls++;
+            pixelsFlipped += flipped;
+        }
+        return collision ? 1 : 0;
+    }
+
+    //control flow, shared by execute() and the blocks of RomTranslator, which set pc themselves
+    void jump(int from, int to){
+        if(to <= from && from - to < IDLE_SPAN * 2 && idleDetection){
+            idleJump = from;  //closes a short loop, see idle()
+        }
+        pc = to;
+    }
+
+    void call(int from, int to){
+        if(sp == stack.length){
+            throw fault(CpuFault.Kind.STACK_OVERFLOW, from, -1);
+        }
+        stack[sp++] = from;
+        pc = to;
+    }
+
+    void ret(){
+        if(sp == 0){
+            throw fault(CpuFault.Kind.STACK_UNDERFLOW, -1);
+        }
+        pc = stack[--sp] + 2;
+    }
+
+    void jumpOffset(int nnn){
+        pc = nnn + (V[0] & 0xFF);
+    }
+
+    void branch(int from, int taken){  //skip instructions, taken is 1 to skip the next instruction
+        pc = from;
+        pc += taken != 0 ? skip() : 2;
+    }
+
+    void at(int done){  //compiled code, with V stored, before an instruction that may fault: pc as the interpreter has it
+        pc = blockStart + done * 2;
+        completed = done;
+    }
+
+    int getCompleted() {  //after a CpuFault out of step(budget, timerBudget), the instructions it finished before the fault
+        return completed;
+    }
+
+    void advance(int bytes){  //end of a straight-line block, at() may have moved pc meanwhile
+        pc = blockStart + bytes;
+    }
+
+    int keyPressed(int key){
+        return isPressed(key) ? 1 : 0;
+    }
+
+    private boolean isPressed(int key){  //EX9E / EXA1, there are 16 keys
+        if(key >>> 4 != 0){
+            throw fault(CpuFault.Kind.KEY_RANGE, key);
+        }
+        return keypad.isPressed(key);
+    }
+
+    void clearScreen(){  //00E0, the selected planes in XO-CHIP
+        frameBuffer.clear(planes);
+    }
+
+    int randomByte(int mask){
+        return random.nextByte() & mask;
+    }
+
+    int addToI(int vx){  //returns the new VF
+        int vf = I + vx > 0xFFF ? 1 : 0;
+        I += vx;
+        return vf;
+    }
+
+    void setI(int value){
+        I = value;
+    }
+
+    int readAtI(int offset){
+        checkRange(I + offset, 1);
+        return read(I + offset);
+    }
+
+    void setDelayTimer(int value){
+        delay_timer = value;
+    }
+
+    void setSoundTimer(int value){
+        sound_timer = value;
+    }
+
+    int read(int address){
+        return pages[address >>> 8][address & 0xFF] & 0xFF;
+    }
+
+    private void store(int address, int value){  //raw store, callers report the range to written() afterwards
+        int page = address >>> 8;
+        if(shared[page]){
+            pages[page] = pages[page].clone();
+            shared[page] = false;
+        }
+        pages[page][address & 0xFF] = (byte) value;
+    }
+
+    private void countBlock(int start, int executed){  //a compiled block is straight-line code, its instructions follow start
+        for(int i = 0; i < executed; i++){
+            int address = start + i * 2;
+            Instruction ins = decoded(address);
+            opCounts[ins != null ? ins.op : Instruction.handler(read(address) << 8 | read(address + 1))]++;
+            if(pcCounts != null){
+                pcCounts[address]++;
+            }
+        }
+    }
+
+    public void setIdleDetection(boolean idleDetection) {  //on by default, off executes every instruction of idle loops
+        this.idleDetection = idleDetection;
+        idleJump = -1;
+    }
+
+    public boolean isIdleDetection() {
+        return idleDetection;
+    }
+
+    void setCounting(boolean counting, boolean hotSpots){  //see Emulator.setMetrics()
+        opCounts = counting ? new long[Instruction.COUNT] : null;
+        pcCounts = counting && hotSpots ? new int[variant.memorySize] : null;
+        drawCalls = 0;
+        pixelsFlipped = 0;
+        keyWaits = 0;
+        idleSkipped = 0;
+    }
+
+    void flushCounts(Metrics metrics, int instructionsPerSecond){  //moves the local counts into metrics and zeroes them
+        metrics.addOpcodes(opCounts);
+        Arrays.fill(opCounts, 0);
+        if(pcCounts != null){
+            metrics.addHotSpots(pcCounts);
+            Arrays.fill(pcCounts, 0);
+        }
+        metrics.addIdle(idleSkipped);
+        metrics.addDraws(drawCalls, pixelsFlipped);
+        metrics.addKeyWait(keyWaits * TimeUnit.SECONDS.toNanos(1) / instructionsPerSecond);  //in emulated time
+        drawCalls = 0;
+        pixelsFlipped = 0;
+        keyWaits = 0;
+        idleSkipped = 0;
+    }
+
+    private void checkRange(int address, int count){  //count bytes from address, I based accesses check before they start
+        if(address + count > pages.length << 8){
+            throw fault(CpuFault.Kind.MEMORY_RANGE, address + count - 1);
+        }
+    }
+
+    private CpuFault fault(CpuFault.Kind kind, int address){
+        return fault(kind, pc, address);
+    }
+
+    private CpuFault fault(CpuFault.Kind kind, int at, int address){  //at may be past the end for PC_RANGE
+        int size = pages.length << 8;
+        int opcode = at + 1 < size ? read(at) << 8 | read(at + 1) : -1;
+        return new CpuFault(kind, at, opcode, address);
+    }
+
+    private void unknownOpcode(){
+        if(traceLevel >= Tracer.ERRORS){
+            tracer.unknownOpcode(pc, opcode);
+        }
+    }
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+    public void setOpcode(int opcode) {
+        this.opcode = opcode;
+    }
+
+    public int getPlanes() {
+        return planes;
+    }
+
+    public byte[] getPattern() {  //live XO-CHIP audio pattern
+        return pattern;
+    }
+
+    public int getPitch() {
+        return pitch;
+    }
+
+    public byte[] getV() {  //live registers, signed bytes, see getV(int)
+        return V;
+    }
+
+    public int getV(int register) {
+        return V[register] & 0xFF;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public int getDelayTimer() {
+        return delay_timer;
+    }
+
+    public int getSoundTimer() {
+        return sound_timer;
+    }
+
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    public Keypad getKeypad() {
+        return keypad;
+    }
+
+    public void setCompiler(BlockCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    public BlockCompiler getCompiler() {
+        return compiler;
+    }
+
+    public void setSeed(long seed) {  //fixes the CXNN sequence, together with an InputLog a run can be reproduced
+        random.setSeed(seed);
+    }
+
+    public void setRandom(RandomSource random) {
+        this.random = random;
+    }
+
+    public RandomSource getRandom() {
+        return random;
+    }
+
+    public Snapshot snapshot(){  //machine state without the Emulator clock, see Emulator.snapshot()
+        return snapshot(0, 0, 0);
+    }
+
+    Snapshot snapshot(long cycles, long timerBase, long timerTicks){  //pages are shared with the snapshot until either side writes
+        Arrays.fill(shared, true);
+        return new Snapshot(variant, pages.clone(), V.clone(), I, pc, stack.clone(), sp, delay_timer, sound_timer, random.getState(),
+                frameBuffer.getRows().clone(), frameBuffer.isHires(), planes, flags.clone(), pattern.clone(), pitch,
+                cycles, timerBase, timerTicks);
+    }
+
+    public void restore(Snapshot snapshot){
+        if(snapshot.variant != variant){
+            setVariant(snapshot.variant);
+        }
+        for(int page = 0; page < pages.length; page++){
+            if(pages[page] != snapshot.pages[page]){  //pages that never diverged keep their decoded instructions and blocks
+                pages[page] = snapshot.pages[page];
+                written(page * PAGE_SIZE, page * PAGE_SIZE + PAGE_SIZE - 1);
+            }
+        }
+        Arrays.fill(shared, true);
+        System.arraycopy(snapshot.V, 0, V, 0, V.length);
+        I = snapshot.I;
+        pc = snapshot.pc;
+        System.arraycopy(snapshot.stack, 0, stack, 0, stack.length);
+        sp = snapshot.sp;
+        delay_timer = snapshot.delayTimer;
+        sound_timer = snapshot.soundTimer;
+        random.setState(snapshot.random);
+        frameBuffer.setHires(snapshot.hires);
+        frameBuffer.setRows(snapshot.rows);
+        planes = snapshot.planes;
+        System.arraycopy(snapshot.flags, 0, flags, 0, flags.length);
+        System.arraycopy(snapshot.pattern, 0, pattern, 0, pattern.length);
+        pitch = snapshot.pitch;
+    }
+
+    public void setCoverage(Coverage coverage) {  //the interpreter records edges into it, compiled blocks do not
+        this.coverage = coverage;
+    }
+
+    public Coverage getCoverage() {
+        return coverage;
+    }
+
+    public void setTracer(Tracer tracer, int traceLevel) {
+        this.tracer = tracer;
+        this.traceLevel = traceLevel;
+    }
+}
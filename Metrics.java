@@ -0,0 +1,392 @@
+package com.company;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+//runtime counters for one or more emulators. Memory counts into plain local fields and Emulator flushes them here in
+//batches, so the cost per instruction is one array increment, and a null check while no Metrics is attached.
+//Readers (JMX, the periodic dump) only ever see the striped sums
+public class Metrics implements MetricsMXBean {
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / Emulator.TIMER_HZ;
+    private static final int OPCODES_SHOWN = 12;        //in dump(), JMX has all of them
+    private static final int HOT_SPOTS_SHOWN = 10;
+
+    private final LongAdder[] opcodes = new LongAdder[Instruction.COUNT];
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder drawCalls = new LongAdder();
+    private final LongAdder pixelsFlipped = new LongAdder();
+    private final LongAdder keyWaitNanos = new LongAdder();
+    private final LongAdder idle = new LongAdder();
+    private final AtomicLongArray hotSpots;   //executions per address, null unless enabled
+
+    private volatile long timerDriftNanos;
+    private final LongAdder jitterCount = new LongAdder();
+    private final LongAdder jitterTotalNanos = new LongAdder();
+    private final LongAccumulator jitterMaxNanos = new LongAccumulator(Math::max, 0);
+    private long lastFrameNanos = -1;         //frame() caller only
+    private volatile Buzzer buzzer;           //audio counters are read from it, null = none
+    private volatile Keypad keypad;           //input counters are read from it, null = none
+    private volatile FrameExchange display;   //presentation counters are read from it, null = none
+
+    private ScheduledExecutorService sampler;
+    private long sampledInstructions;         //sampler thread only
+    private long sampledNanos;
+    private volatile double instructionsPerSecond;
+
+    public Metrics(boolean hotSpots){  //hot spots add a second increment per instruction
+        for(int op = 0; op < opcodes.length; op++){
+            opcodes[op] = new LongAdder();
+        }
+        this.hotSpots = hotSpots ? new AtomicLongArray(Variant.XOCHIP.memorySize) : null;
+    }
+
+    //written by Emulator
+
+    void addOpcodes(long[] counts){
+        for(int op = 0; op < counts.length; op++){
+            if(counts[op] != 0){
+                opcodes[op].add(counts[op]);
+            }
+        }
+    }
+
+    void addHotSpots(int[] counts){
+        for(int address = 0; address < counts.length; address++){
+            if(counts[address] != 0){
+                hotSpots.addAndGet(address, counts[address]);
+            }
+        }
+    }
+
+    void addIdle(long count){
+        idle.add(count);
+    }
+
+    void addDraws(long calls, long pixels){
+        drawCalls.add(calls);
+        pixelsFlipped.add(pixels);
+    }
+
+    void addKeyWait(long nanos){
+        keyWaitNanos.add(nanos);
+    }
+
+    void addFrames(long count){
+        frames.add(count);
+    }
+
+    void setTimerDrift(long nanos){
+        timerDriftNanos = nanos;
+    }
+
+    public void frame(long nowNanos){  //call once per presented frame from a single thread, measures pacing against 60hz
+        if(lastFrameNanos >= 0){
+            long jitter = Math.abs(nowNanos - lastFrameNanos - FRAME_NANOS);
+            jitterCount.increment();
+            jitterTotalNanos.add(jitter);
+            jitterMaxNanos.accumulate(jitter);
+        }
+        lastFrameNanos = nowNanos;
+    }
+
+    public void setBuzzer(Buzzer buzzer){
+        this.buzzer = buzzer;
+    }
+
+    public void setKeypad(Keypad keypad){
+        this.keypad = keypad;
+    }
+
+    public void setDisplay(FrameExchange display){
+        this.display = display;
+    }
+
+    //reporting
+
+    public synchronized void start(PrintStream out, long dumpSeconds){  //samples IPS every second, dumps every dumpSeconds if out != null
+        if(sampler != null){
+            return;
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chip8-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampledNanos = System.nanoTime();
+        sampledInstructions = getInstructions();
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+        if(out != null){
+            sampler.scheduleAtFixedRate(() -> out.print(dump()), dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop(){
+        if(sampler != null){
+            sampler.shutdownNow();
+            sampler = null;
+        }
+    }
+
+    private void sample(){
+        long now = System.nanoTime();
+        long instructions = getInstructions();
+        instructionsPerSecond = (instructions - sampledInstructions) * 1e9 / Math.max(1, now - sampledNanos);
+        sampledInstructions = instructions;
+        sampledNanos = now;
+    }
+
+    public void register(String name){  //platform MBean server, e.g. jconsole
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("com.company:type=Metrics,name=" + name));
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register metrics " + name, e);
+        }
+    }
+
+    public String dump(){
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("instructions %d (%.0f/s, %d idle), frames %d, draws %.1f/frame, pixels flipped %.1f/frame%n",
+                getInstructions(), getInstructionsPerSecond(), getIdleInstructions(), getFrames(), getDrawCallsPerFrame(), getPixelsFlippedPerFrame()));
+        out.append(String.format("FX0A wait %.1f ms, timer drift %+.2f ms, frame jitter avg %.2f ms max %.2f ms%n",
+                getKeyWaitMillis(), getTimerDriftMillis(), getFrameJitterAverageMillis(), getFrameJitterMaxMillis()));
+        if(buzzer != null){
+            out.append(String.format("audio %d/%d ticks sounding, %d underruns, %d samples overrun, lag max %.1f ms%s%n",
+                    buzzer.getSoundingTicks(), buzzer.getTicks(), getAudioUnderruns(), getAudioOverruns(),
+                    getAudioLagMaxMillis(), buzzer.isNullSink() ? " (null sink)" : ""));
+        }
+        if(display != null){
+            out.append(String.format("display %d frames presented, %d dropped, %d duplicated%n",
+                    getPresentedFrames(), getDroppedFrames(), getDuplicatedFrames()));
+        }
+        if(keypad != null){
+            out.append(String.format("keys %d drained, latency avg %.2f ms max %.2f ms, %d overflows%n",
+                    getKeyEvents(), getKeyLatencyAverageMillis(), getKeyLatencyMaxMillis(), getKeyOverflows()));
+        }
+        long total = Math.max(1, getInstructions());
+        out.append("opcodes:");
+        int shown = 0;
+        for(Map.Entry<String, Long> entry : getOpcodeCounts().entrySet()){
+            if(shown++ == OPCODES_SHOWN){
+                break;
+            }
+            out.append(String.format(" %s %.1f%%", entry.getKey(), entry.getValue() * 100.0 / total));
+        }
+        out.append(System.lineSeparator());
+        if(hotSpots != null){
+            out.append("hot spots:");
+            for(Map.Entry<String, Long> entry : getHotSpots().entrySet()){
+                out.append(' ').append(entry.getKey()).append(' ').append(entry.getValue());
+            }
+            out.append(System.lineSeparator());
+        }
+        return out.toString();
+    }
+
+    @Override
+    public long getInstructions() {
+        long total = idle.sum();
+        for(LongAdder count : opcodes){
+            total += count.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getIdleInstructions() {
+        return idle.sum();
+    }
+
+    @Override
+    public double getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    public long getOpcodeCount(int op) {
+        return opcodes[op].sum();
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeCounts() {  //executed families, most frequent first
+        List<Integer> ops = new ArrayList<>();
+        long[] counts = new long[opcodes.length];
+        for(int op = 0; op < opcodes.length; op++){
+            counts[op] = opcodes[op].sum();
+            if(counts[op] != 0){
+                ops.add(op);
+            }
+        }
+        ops.sort((a, b) -> Long.compare(counts[b], counts[a]));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for(int op : ops){
+            result.put(Instruction.name(op), counts[op]);
+        }
+        return result;
+    }
+
+    @Override
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    @Override
+    public long getDrawCalls() {
+        return drawCalls.sum();
+    }
+
+    @Override
+    public long getPixelsFlipped() {
+        return pixelsFlipped.sum();
+    }
+
+    @Override
+    public double getDrawCallsPerFrame() {
+        return (double) getDrawCalls() / Math.max(1, getFrames());
+    }
+
+    @Override
+    public double getPixelsFlippedPerFrame() {
+        return (double) getPixelsFlipped() / Math.max(1, getFrames());
+    }
+
+    @Override
+    public double getKeyWaitMillis() {
+        return keyWaitNanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getTimerDriftMillis() {
+        return timerDriftNanos / 1e6;
+    }
+
+    @Override
+    public double getFrameJitterAverageMillis() {
+        return jitterTotalNanos.sum() / 1e6 / Math.max(1, jitterCount.sum());
+    }
+
+    @Override
+    public double getFrameJitterMaxMillis() {
+        return jitterMaxNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getAudioUnderruns() {
+        Buzzer b = buzzer;
+        return b == null ? 0 : b.getUnderruns();
+    }
+
+    @Override
+    public long getAudioOverruns() {
+        Buzzer b = buzzer;
+        return b == null ? 0 : b.getOverruns();
+    }
+
+    @Override
+    public double getAudioLagMaxMillis() {
+        Buzzer b = buzzer;
+        return b == null ? 0 : b.getMaxLagMillis();
+    }
+
+    @Override
+    public long getPresentedFrames() {
+        FrameExchange d = display;
+        return d == null ? 0 : d.getPresented();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        FrameExchange d = display;
+        return d == null ? 0 : d.getDropped();
+    }
+
+    @Override
+    public long getDuplicatedFrames() {
+        FrameExchange d = display;
+        return d == null ? 0 : d.getDuplicated();
+    }
+
+    @Override
+    public long getKeyEvents() {
+        Keypad k = keypad;
+        return k == null ? 0 : k.getLatencyCount();
+    }
+
+    @Override
+    public double getKeyLatencyAverageMillis() {
+        Keypad k = keypad;
+        return k == null ? 0 : k.getAverageLatencyNanos() / 1e6;
+    }
+
+    @Override
+    public double getKeyLatencyMaxMillis() {
+        Keypad k = keypad;
+        return k == null ? 0 : k.getMaxLatencyNanos() / 1e6;
+    }
+
+    @Override
+    public long getKeyOverflows() {
+        Keypad k = keypad;
+        return k == null ? 0 : k.getOverflows();
+    }
+
+    @Override
+    public boolean isHotSpotsEnabled() {
+        return hotSpots != null;
+    }
+
+    public long getHotSpot(int address) {
+        return hotSpots == null ? 0 : hotSpots.get(address);
+    }
+
+    @Override
+    public Map<String, Long> getHotSpots() {  //top addresses, most executed first
+        Map<String, Long> result = new LinkedHashMap<>();
+        if(hotSpots == null){
+            return result;
+        }
+        List<Integer> addresses = new ArrayList<>();
+        long[] counts = new long[hotSpots.length()];  //copied so the sort sees stable values
+        for(int address = 0; address < counts.length; address++){
+            counts[address] = hotSpots.get(address);
+            if(counts[address] != 0){
+                addresses.add(address);
+            }
+        }
+        addresses.sort((a, b) -> Long.compare(counts[b], counts[a]));
+        for(int address : addresses.subList(0, Math.min(HOT_SPOTS_SHOWN, addresses.size()))){
+            result.put(String.format("0x%03x", address), counts[address]);
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {  //counts only, a running emulator keeps adding to the fresh totals
+        for(LongAdder count : opcodes){
+            count.reset();
+        }
+        idle.reset();
+        frames.reset();
+        drawCalls.reset();
+        pixelsFlipped.reset();
+        keyWaitNanos.reset();
+        jitterCount.reset();
+        jitterTotalNanos.reset();
+        jitterMaxNanos.reset();
+        if(hotSpots != null){
+            for(int address = 0; address < hotSpots.length(); address++){
+                hotSpots.set(address, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.company;
+
+import java.util.Map;
+
+//JMX view of Metrics, registered as com.company:type=Metrics,name=... and readable from jconsole or jcmd
+public interface MetricsMXBean {
+    long getInstructions();
+
+    long getIdleInstructions();            //skipped by idle-loop detection, included in getInstructions()
+
+    double getInstructionsPerSecond();     //over the last sample period
+
+    Map<String, Long> getOpcodeCounts();   //by family, e.g. "8XY4"
+
+    long getFrames();                      //emulated 60hz frames
+
+    long getDrawCalls();
+
+    long getPixelsFlipped();
+
+    double getDrawCallsPerFrame();
+
+    double getPixelsFlippedPerFrame();
+
+    double getKeyWaitMillis();             //emulated time spent blocked in FX0A
+
+    double getTimerDriftMillis();          //emulated timer ticks ahead (+) or behind (-) a true 60hz clock
+
+    double getFrameJitterAverageMillis();  //presented frame intervals against 1/60 s
+
+    double getFrameJitterMaxMillis();
+
+    long getAudioUnderruns();              //times the audio line found the sample ring empty
+
+    long getAudioOverruns();               //samples dropped to keep the ring under one frame
+
+    double getAudioLagMaxMillis();         //sample ring behind emulated time, without the line buffer
+
+    long getPresentedFrames();             //taken by the renderer or frame server as new frames
+
+    long getDroppedFrames();               //published but replaced before anything took them
+
+    long getDuplicatedFrames();            //renderer pulses that found no new frame and showed the last one again
+
+    long getKeyEvents();                   //key changes posted by the UI or a frame client and drained by the emulator
+
+    double getKeyLatencyAverageMillis();   //post() to drain(), input-to-CPU latency
+
+    double getKeyLatencyMaxMillis();
+
+    long getKeyOverflows();                //key changes dropped because the event ring was full
+
+    boolean isHotSpotsEnabled();
+
+    Map<String, Long> getHotSpots();       //most executed addresses, empty unless enabled
+
+    void reset();
+}
@@ -0,0 +1,11 @@
+package com.company;
+
+public interface RandomSource {  //entropy for CXNN, the whole state fits in a long so snapshots and replays can carry it
+    int nextByte();                //0-255
+
+    void setSeed(long seed);
+
+    long getState();
+
+    void setState(long state);
+}
@@ -0,0 +1,272 @@
+package com.company;
+
+import java.util.Arrays;
+
+//bounded history of machine state, one entry per frame. An entry is a list of (index, value) pairs over a flat int view
+//of the state, bytes packed four to an int: a keyframe every keyframeInterval frames stores the non-zero values, the
+//frames between store values XORed with the previous frame. Entries live in one fixed int arena, the oldest keyframe
+//group is dropped when full. The layout follows the variant's memory and display size, a variant change starts a new
+//history
+public class RewindBuffer {
+    //flat state layout, memory comes last as its size depends on the variant
+    private static final int PAGE_INTS = Memory.PAGE_SIZE / 4;
+    private static final int V = 0;
+    private static final int STACK = V + 4;
+    private static final int REGISTERS = STACK + 16;          //I, pc, sp, delay, sound, variant, hires, planes, pitch
+    private static final int LONGS = REGISTERS + 9;           //random, cycles, timerBase, timerTicks as two ints each
+    private static final int FLAGS = LONGS + 8;               //flags and pattern, 16 bytes each
+    private static final int ROWS = FLAGS + 8;
+
+    private final int capacity;          //frames
+    private final int keyframeInterval;
+    private final int[] arena;
+    private final int[] entryStart;      //per frame slot, frame f uses slot f % capacity
+    private final int[] entryLength;
+    private final boolean[] keyframe;
+
+    private long first;                  //oldest frame held, always a keyframe
+    private long end;                    //frame number of the next record()
+    private long lastKeyframe;
+    private int head;                    //arena position for the next entry
+
+    private Variant variant;                                  //of the current layout
+    private int memory;                                       //start of memory in the flat state
+    private int stateSize;
+    private int[] previous;                                   //state of frame end - 1
+    private byte[][] previousPages;                           //its memory pages, unchanged pages are skipped when diffing
+    private int[] state;
+    private int[] scratch;
+
+    public RewindBuffer(int capacity, int keyframeInterval, int maxBytes){  //e.g. 3600 frames (60 s), 60, 4 MB
+        layout(Variant.CHIP8);
+        if(maxBytes / Integer.BYTES < scratch.length){
+            throw new IllegalArgumentException("rewind buffer needs at least " + scratch.length * Integer.BYTES + " bytes");
+        }
+        this.capacity = capacity;
+        this.keyframeInterval = keyframeInterval;
+        this.arena = new int[maxBytes / Integer.BYTES];
+        this.entryStart = new int[capacity];
+        this.entryLength = new int[capacity];
+        this.keyframe = new boolean[capacity];
+    }
+
+    private void layout(Variant variant){
+        int rows = variant.planes == 0 ? FrameBuffer.HEIGHT : variant.planes * FrameBuffer.PLANE;
+        this.variant = variant;
+        memory = ROWS + rows * 2;
+        stateSize = memory + variant.memorySize / 4;
+        previous = new int[stateSize];
+        state = new int[stateSize];
+        scratch = new int[stateSize * 2];
+    }
+
+    public void record(Emulator emulator){  //call once per frame
+        Snapshot snapshot = emulator.snapshot();
+        if(snapshot.variant != variant){  //older frames have another layout
+            layout(snapshot.variant);
+            if(arena.length < scratch.length){
+                throw new IllegalStateException("rewind buffer needs at least " + scratch.length * Integer.BYTES + " bytes for " + variant);
+            }
+            first = end;
+        }
+        flatten(snapshot, state);
+        boolean key = first == end || end - lastKeyframe >= keyframeInterval;
+
+        int length = encode(0, memory, key, 0);
+        for(int page = 0; page < snapshot.pages.length; page++){
+            if(!key && snapshot.pages[page] == previousPages[page]){  //copy-on-write: same page, same contents
+                continue;
+            }
+            length = encode(memory + page * PAGE_INTS, memory + (page + 1) * PAGE_INTS, key, length);
+        }
+
+        append(length, key);
+        System.arraycopy(state, 0, previous, 0, stateSize);
+        previousPages = snapshot.pages;
+    }
+
+    private int encode(int from, int to, boolean key, int length){
+        for(int i = from; i < to; i++){
+            int value = key ? state[i] : state[i] ^ previous[i];
+            if(value != 0){
+                scratch[length++] = i;
+                scratch[length++] = value;
+            }
+        }
+        return length;
+    }
+
+    private void append(int length, boolean key){
+        if(key){
+            lastKeyframe = end;
+        }
+        if(end - first == capacity){
+            dropOldest();
+        }
+        while(true){
+            if(first == end){
+                head = 0;
+                break;
+            }
+            int tail = entryStart[slot(first)];
+            if(head >= tail){
+                if(arena.length - head >= length){
+                    break;
+                }
+                if(tail > length){
+                    head = 0;  //wrap, the rest of the arena stays unused this round
+                    break;
+                }
+            } else if(tail - head > length){  //strict, head never catches up with the oldest entry
+                break;
+            }
+            dropOldest();
+        }
+        if(first == end && !key){  //everything before it was dropped, store this frame as a keyframe instead
+            encodeKeyframe();
+            return;
+        }
+        System.arraycopy(scratch, 0, arena, head, length);
+        int slot = slot(end);
+        entryStart[slot] = head;
+        entryLength[slot] = length;
+        keyframe[slot] = key;
+        head += length;
+        end++;
+    }
+
+    private void encodeKeyframe(){
+        int length = encode(0, stateSize, true, 0);
+        System.arraycopy(scratch, 0, arena, 0, length);
+        int slot = slot(end);
+        entryStart[slot] = 0;
+        entryLength[slot] = length;
+        keyframe[slot] = true;
+        lastKeyframe = end;
+        head = length;
+        end++;
+    }
+
+    private void dropOldest(){  //drops the oldest keyframe and the deltas that depend on it
+        do {
+            first++;
+        } while(first < end && !keyframe[slot(first)]);
+    }
+
+    public void seek(Emulator emulator, long frame){  //restores the state of frame and forgets every later frame
+        if(frame < first || frame >= end){
+            throw new IllegalArgumentException("frame " + frame + " is not in the rewind buffer [" + first + ", " + end + ")");
+        }
+        long key = frame;
+        while(!keyframe[slot(key)]){
+            key--;
+        }
+        Arrays.fill(state, 0);
+        for(long f = key; f <= frame; f++){
+            int start = entryStart[slot(f)];
+            int stop = start + entryLength[slot(f)];
+            for(int i = start; i < stop; i += 2){
+                state[arena[i]] ^= arena[i + 1];  //a keyframe XORed onto zeros is the keyframe itself
+            }
+        }
+
+        Snapshot snapshot = unflatten(state);
+        emulator.restore(snapshot);
+        System.arraycopy(state, 0, previous, 0, stateSize);
+        previousPages = snapshot.pages;
+        end = frame + 1;
+        head = entryStart[slot(frame)] + entryLength[slot(frame)];
+        lastKeyframe = key;
+    }
+
+    public void rewind(Emulator emulator, int frames){  //steps back up to frames frames, stops at the oldest one
+        if(end - first > 1){
+            seek(emulator, Math.max(first, end - 1 - frames));
+        }
+    }
+
+    public long getFirstFrame() {
+        return first;
+    }
+
+    public long getLastFrame() {  //-1 before the first record()
+        return end - 1;
+    }
+
+    public int getBytes() {  //fixed size of the arena, memory use does not grow with history
+        return arena.length * Integer.BYTES;
+    }
+
+    private int slot(long frame){
+        return (int) (frame % capacity);
+    }
+
+    private void flatten(Snapshot snapshot, int[] state){
+        for(int page = 0; page < snapshot.pages.length; page++){
+            pack(snapshot.pages[page], state, memory + page * PAGE_INTS);
+        }
+        pack(snapshot.V, state, V);
+        System.arraycopy(snapshot.stack, 0, state, STACK, 16);
+        state[REGISTERS] = snapshot.I;
+        state[REGISTERS + 1] = snapshot.pc;
+        state[REGISTERS + 2] = snapshot.sp;
+        state[REGISTERS + 3] = snapshot.delayTimer;
+        state[REGISTERS + 4] = snapshot.soundTimer;
+        state[REGISTERS + 5] = snapshot.variant.ordinal();
+        state[REGISTERS + 6] = snapshot.hires ? 1 : 0;
+        state[REGISTERS + 7] = snapshot.planes;
+        state[REGISTERS + 8] = snapshot.pitch;
+        putLong(state, LONGS, snapshot.random);
+        putLong(state, LONGS + 2, snapshot.cycles);
+        putLong(state, LONGS + 4, snapshot.timerBase);
+        putLong(state, LONGS + 6, snapshot.timerTicks);
+        pack(snapshot.flags, state, FLAGS);
+        pack(snapshot.pattern, state, FLAGS + 4);
+        for(int y = 0; y < snapshot.rows.length; y++){
+            putLong(state, ROWS + y * 2, snapshot.rows[y]);
+        }
+    }
+
+    private Snapshot unflatten(int[] state){
+        byte[][] pages = new byte[variant.memorySize / Memory.PAGE_SIZE][];
+        for(int page = 0; page < pages.length; page++){
+            pages[page] = unpack(state, memory + page * PAGE_INTS, Memory.PAGE_SIZE);
+        }
+        long[] rows = new long[(memory - ROWS) / 2];
+        for(int y = 0; y < rows.length; y++){
+            rows[y] = getLong(state, ROWS + y * 2);
+        }
+        return new Snapshot(variant, pages, unpack(state, V, 16), state[REGISTERS], state[REGISTERS + 1],
+                Arrays.copyOfRange(state, STACK, STACK + 16), state[REGISTERS + 2], state[REGISTERS + 3], state[REGISTERS + 4],
+                getLong(state, LONGS), rows, state[REGISTERS + 6] != 0, state[REGISTERS + 7], unpack(state, FLAGS, 16),
+                unpack(state, FLAGS + 4, 16), state[REGISTERS + 8], getLong(state, LONGS + 2), getLong(state, LONGS + 4),
+                getLong(state, LONGS + 6));
+    }
+
+    private static void pack(byte[] bytes, int[] state, int index){
+        for(int i = 0; i < bytes.length; i += 4){
+            state[index + i / 4] = bytes[i] << 24 | (bytes[i + 1] & 0xFF) << 16 | (bytes[i + 2] & 0xFF) << 8 | bytes[i + 3] & 0xFF;
+        }
+    }
+
+    private static byte[] unpack(int[] state, int index, int length){
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i += 4){
+            int value = state[index + i / 4];
+            bytes[i] = (byte) (value >>> 24);
+            bytes[i + 1] = (byte) (value >>> 16);
+            bytes[i + 2] = (byte) (value >>> 8);
+            bytes[i + 3] = (byte) value;
+        }
+        return bytes;
+    }
+
+    private static void putLong(int[] state, int index, long value){
+        state[index] = (int) (value >>> 32);
+        state[index + 1] = (int) value;
+    }
+
+    private static long getLong(int[] state, int index){
+        return (long) state[index] << 32 | (state[index + 1] & 0xFFFFFFFFL);
+    }
+}
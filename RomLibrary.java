@@ -0,0 +1,271 @@
+package com.company;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+//ROMs indexed by SHA-256 of their contents, from a directory, a pack file or a single ROM file. Files are mapped with
+//FileChannel.map and read in place, and each ROM builds one read-only memory image on first use, which every Memory
+//loaded from it shares copy-on-write, see Memory.loadImage(). Same contents under several names are one Rom
+public class RomLibrary {
+    public static final int MAX_PROGRAM = Variant.XOCHIP.memorySize - 512;  //CHIP-8 and SCHIP ROMs fit in 3584 bytes
+    private static final int MAGIC = 0x4338504B;  //"C8PK"
+    private static final int VERSION = 1;
+
+    private final Map<String, Rom> byHash = new LinkedHashMap<>();
+    private final Map<String, Rom> byName = new LinkedHashMap<>();
+    private int skipped;  //files too large to be a ROM
+
+    public static RomLibrary open(Path path) throws IOException {  //directory of ROMs, pack file, or one ROM file
+        RomLibrary library = new RomLibrary();
+        if(Files.isDirectory(path)){
+            List<Path> files = new ArrayList<>();
+            try(Stream<Path> list = Files.list(path)){
+                list.filter(Files::isRegularFile).sorted().forEach(files::add);
+            }
+            for(Path file : files){
+                library.add(file.getFileName().toString(), map(file));
+            }
+            return library;
+        }
+        ByteBuffer data = map(path);
+        if(data.remaining() >= 8 && data.getInt(0) == MAGIC){
+            library.readPack(data, path);
+        } else {
+            library.add(path.getFileName().toString(), data);
+        }
+        return library;
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());  //the mapping outlives the channel
+        }
+    }
+
+    private void readPack(ByteBuffer pack, Path path) throws IOException {  //MAGIC, VERSION, count, then per ROM: name, length, bytes
+        try {
+            pack.position(4);
+            int version = pack.getInt();
+            if(version != VERSION){
+                throw new IOException(path + ": unsupported pack version " + version);
+            }
+            int count = pack.getInt();
+            for(int i = 0; i < count; i++){
+                byte[] name = new byte[pack.getShort() & 0xFFFF];
+                pack.get(name);
+                int length = pack.getInt();
+                ByteBuffer data = pack.slice().limit(length);
+                pack.position(pack.position() + length);
+                add(new String(name, StandardCharsets.UTF_8), data);
+            }
+        } catch (RuntimeException e) {  //BufferUnderflowException, IllegalArgumentException from a truncated pack
+            throw new IOException(path + ": corrupt pack", e);
+        }
+    }
+
+    private void add(String name, ByteBuffer data){
+        if(data.remaining() > MAX_PROGRAM){
+            skipped++;
+            return;
+        }
+        String hash = hash(data);
+        Rom rom = byHash.get(hash);
+        if(rom == null){
+            rom = new Rom(hash, data.asReadOnlyBuffer());
+            byHash.put(hash, rom);
+        }
+        rom.names.add(name);
+        byName.put(name, rom);
+    }
+
+    public static void pack(RomLibrary library, Path packFile) throws IOException {  //one file per library, one entry per name
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(packFile)))){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(library.byName.size());
+            for(Map.Entry<String, Rom> entry : library.byName.entrySet()){
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                ByteBuffer data = entry.getValue().getData();
+                out.writeInt(data.remaining());
+                write(out, data);
+            }
+        }
+    }
+
+    private static void write(OutputStream out, ByteBuffer data) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        out.write(bytes);
+    }
+
+    public static String hash(ByteBuffer data){  //lowercase hex SHA-256, does not move the buffer position
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data.duplicate());
+            StringBuilder hex = new StringBuilder();
+            for(byte b : digest.digest()){
+                hex.append(Character.forDigit(b >>> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);  //every JRE has SHA-256
+        }
+    }
+
+    public static Rom resolve(String rom, String library) throws IOException {  //rom by name or hash in library, or rom is a file
+        Path path = Paths.get(library != null ? library : rom);
+        if(library == null && Files.isRegularFile(path)){  //one ROM file, hashed only if asked, saves the security providers' startup
+            ByteBuffer data = map(path);
+            if(data.remaining() <= MAX_PROGRAM && !(data.remaining() >= 8 && data.getInt(0) == MAGIC)){
+                Rom found = new Rom(null, data.asReadOnlyBuffer());
+                found.names.add(path.getFileName().toString());
+                return found;
+            }
+        }
+        RomLibrary roms = open(path);
+        Rom found = library != null ? roms.find(rom) : roms.byHash.size() == 1 ? roms.byHash.values().iterator().next() : null;
+        if(found == null){
+            throw new IOException(library != null ? "no single ROM " + rom + " in " + library : rom + " is not a ROM file");
+        }
+        return found;
+    }
+
+    public Rom find(String nameOrHash){  //file name, full hash or a unique hash prefix, null if none matches
+        Rom rom = byName.get(nameOrHash);
+        if(rom != null){
+            return rom;
+        }
+        rom = byHash.get(nameOrHash);
+        if(rom != null || nameOrHash.length() < 4){
+            return rom;
+        }
+        for(Rom candidate : byHash.values()){
+            if(candidate.getHash().startsWith(nameOrHash)){
+                if(rom != null){
+                    return null;  //ambiguous
+                }
+                rom = candidate;
+            }
+        }
+        return rom;
+    }
+
+    public Collection<Rom> getRoms() {  //distinct contents
+        return Collections.unmodifiableCollection(byHash.values());
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public static void main(String[] args) throws IOException {  //lists a library, --pack writes it as one pack file
+        if(args.length != 1 && !(args.length == 3 && args[1].equals("--pack"))){
+            System.err.println("usage: RomLibrary <directory|pack|rom> [--pack OUT]");
+            System.exit(2);
+        }
+        RomLibrary library = open(Paths.get(args[0]));
+        for(Rom rom : library.getRoms()){
+            System.out.println(rom.getHash() + " " + rom.getLength() + " " + String.join(", ", rom.getNames()));
+        }
+        System.out.println(library.getRoms().size() + " ROMs, " + library.byName.size() + " names, " + library.getSkipped() + " files skipped");
+        if(args.length == 3){
+            pack(library, Paths.get(args[2]));
+        }
+    }
+
+    public static final class Rom {
+        private String hash;            //null until getHash() for a ROM resolved from its own file
+        private final ByteBuffer data;  //read-only view of the mapped file
+        private final List<String> names = new ArrayList<>(1);
+        private Image image;
+
+        private Rom(String hash, ByteBuffer data){
+            this.hash = hash;
+            this.data = data;
+        }
+
+        public synchronized String getHash() {
+            if(hash == null){
+                hash = hash(getData());
+            }
+            return hash;
+        }
+
+        public List<String> getNames() {
+            return Collections.unmodifiableList(names);
+        }
+
+        public ByteBuffer getData() {  //fresh read-only view, callers may move its position
+            return data.duplicate();
+        }
+
+        public int getLength() {
+            return data.remaining();
+        }
+
+        public synchronized Image image(){  //built once, then shared by every machine that loads this ROM
+            if(image == null){
+                image = new Image(getData());
+            }
+            return image;
+        }
+    }
+
+    //memory of a machine that has just loaded the ROM, plus every non-zero page predecoded. Never written: a Memory
+    //loaded from it copies a page, or a page of the decode table, before its first write. 4 KB for ROMs that fit,
+    //which any variant can load, 64 KB for XO-CHIP ROMs that do not
+    public static final class Image {
+        final byte[][] pages;
+        final Instruction[][] decoded;  //paged like memory
+
+        public Image(ByteBuffer program){  //e.g. a ROM that is not in a library
+            Memory memory = new Memory(new FrameBuffer(), new Keypad());
+            if(program.remaining() > Variant.CHIP8.memorySize - 512){
+                memory.setVariant(Variant.XOCHIP);
+            }
+            memory.loadProgram(program);
+            pages = memory.snapshot().pages;
+
+            decoded = new Instruction[pages.length][];  //null pages are decoded when they run
+            Instruction[] byOpcode = new Instruction[0x10000];  //the same opcode at many addresses, mostly 0000, is one object
+            for(int page = 0; page < pages.length; page++){
+                if(pages[page] == Memory.ZERO_PAGE){
+                    continue;
+                }
+                decoded[page] = new Instruction[Memory.PAGE_SIZE];
+                int end = Math.min((page + 1) * Memory.PAGE_SIZE, pages.length * Memory.PAGE_SIZE - 1);  //the last byte starts no instruction
+                for(int address = page * Memory.PAGE_SIZE; address < end; address++){
+                    int opcode = read(address) << 8 | read(address + 1);
+                    if(byOpcode[opcode] == null){
+                        byOpcode[opcode] = Instruction.decode(opcode);
+                    }
+                    decoded[page][address & 0xFF] = byOpcode[opcode];
+                }
+            }
+        }
+
+        private int read(int address){
+            return pages[address >>> 8][address & 0xFF] & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.company;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//ahead-of-time translation of a ROM into one class. The code is found by following control flow from 0x200: jumps,
+//calls and their return sites, both outcomes of skips, and BNNN through every entry of its jump table NNN + V0. Each
+//basic block, including the jump, call, return or skip ending it, becomes one method that sets pc itself, so blocks
+//run back to back without the interpreter. Installed into a BlockCompiler they behave like compiled blocks from the
+//first instruction on: code the analysis missed and code that gets overwritten falls back to the interpreter, or to
+//the JIT when it is on. Translations are cached as <sha-256>.class, loading one needs no warm-up
+public class RomTranslator {
+    public static final int MAX_BLOCKS = 700;  //keeps the dispatch method under the 8000 bytes the JVM still compiles
+    private static final char FORMAT = '2';    //first char of the block table, older translations are redone
+    private static final int START = 0x200;
+    private static final int END = 4096;       //like the JIT, translations cover the first 4 KB
+    private static final String BLOCK = "(Lcom/company/Memory;[B)I";
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final Map<String, Translation> loaded = new ConcurrentHashMap<>();  //by ROM hash, machines share them
+
+    public static final class Translation {  //blocks of one ROM, see BlockCompiler.install()
+        final int[] starts;
+        final int[] lengths;
+        final boolean[] timed;
+        final CompiledBlock[] blocks;
+
+        private Translation(int[] starts, int[] lengths, boolean[] timed, CompiledBlock[] blocks){
+            this.starts = starts;
+            this.lengths = lengths;
+            this.timed = timed;
+            this.blocks = blocks;
+        }
+
+        public int getBlockCount() {
+            return blocks.length;
+        }
+
+        public int getInstructionCount() {
+            int count = 0;
+            for(int length : lengths){
+                count += length;
+            }
+            return count;
+        }
+    }
+
+    //cached translation of rom in directory, translated and written there on a miss or when the file is unusable
+    public static Translation load(Path directory, RomLibrary.Rom rom) throws IOException {
+        Translation translation = loaded.get(rom.getHash());
+        if(translation != null){
+            return translation;
+        }
+        Path file = directory.resolve(rom.getHash() + ".class");
+        if(Files.exists(file)){
+            translation = define(Files.readAllBytes(file));
+        }
+        if(translation == null){
+            byte[] bytes = translate(rom.getData());
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, rom.getHash(), ".tmp");
+            Files.write(temp, bytes);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            translation = define(bytes);
+            if(translation == null){
+                throw new IllegalStateException("translation of " + rom.getHash() + " does not load");
+            }
+        }
+        Translation raced = loaded.putIfAbsent(rom.getHash(), translation);
+        return raced != null ? raced : translation;
+    }
+
+    public static Translation define(byte[] classFile){  //null when classFile is not a usable translation
+        try {
+            Class<?> rom = LOOKUP.defineHiddenClass(classFile, true).lookupClass();
+            String table = (String) LOOKUP.findStatic(rom, "blocks", MethodType.methodType(String.class)).invoke();
+            if(table.isEmpty() || table.charAt(0) != FORMAT){
+                return null;
+            }
+            int count = (table.length() - 1) / 2;
+            int[] starts = new int[count];
+            int[] lengths = new int[count];
+            boolean[] timed = new boolean[count];
+            CompiledBlock[] blocks = new CompiledBlock[count];
+            MethodHandle constructor = LOOKUP.findConstructor(rom, MethodType.methodType(void.class, int.class));
+            for(int i = 0; i < count; i++){
+                starts[i] = table.charAt(1 + i * 2);
+                lengths[i] = table.charAt(2 + i * 2) & 0xFF;
+                timed[i] = (table.charAt(2 + i * 2) & 0x100) != 0;
+                blocks[i] = (CompiledBlock) constructor.invoke(i);
+            }
+            return new Translation(starts, lengths, timed, blocks);
+        } catch (Throwable e) {  //stale or damaged class file
+            return null;
+        }
+    }
+
+    public static byte[] translate(ByteBuffer program){  //class file for the ROM in program, from position to limit
+        byte[] memory = new byte[END];
+        int end = START + Math.min(program.remaining(), END - START);
+        program.duplicate().get(memory, START, end - START);
+
+        int[] opcodes = new int[END];
+        boolean[] reached = new boolean[END];
+        boolean[] leader = new boolean[END];
+        follow(memory, end, opcodes, reached, leader);
+
+        List<int[]> blocks = new ArrayList<>();  //start, length, timed
+        for(int address = START; address < end && blocks.size() < MAX_BLOCKS; address++){
+            if(reached[address] && leader[address] && isTranslated(Instruction.handler(opcodes[address]))){
+                blocks.add(block(address, opcodes, reached, leader));
+            }
+        }
+        return generate("com/company/Rom_" + RomLibrary.hash(program).substring(0, 16), blocks, opcodes);
+    }
+
+    //marks every instruction reachable from START, leader marks the first instruction of a block
+    private static void follow(byte[] memory, int end, int[] opcodes, boolean[] reached, boolean[] leader){
+        Deque<Integer> work = new ArrayDeque<>();
+        target(work, leader, START);
+        while(!work.isEmpty()){
+            int address = work.pop();
+            if(address < START || address + 1 >= end || reached[address]){
+                continue;
+            }
+            reached[address] = true;
+            int opcode = (memory[address] & 0xFF) << 8 | memory[address + 1] & 0xFF;
+            opcodes[address] = opcode;
+            Instruction ins = Instruction.decode(opcode);
+            switch (ins.op){
+                case Instruction.JP:
+                    target(work, leader, ins.nnn);
+                    break;
+                case Instruction.CALL:
+                    target(work, leader, ins.nnn);
+                    target(work, leader, address + 2);
+                    break;
+                case Instruction.RET:
+                case Instruction.EXIT:
+                    break;
+                case Instruction.JP_V0:  //the jump table, V0 is even for tables of 2-byte instructions
+                    for(int offset = 0; offset < 256; offset += 2){
+                        target(work, leader, ins.nnn + offset);
+                    }
+                    break;
+                case Instruction.SE_NN:
+                case Instruction.SNE_NN:
+                case Instruction.SE_VY:
+                case Instruction.SNE_VY:
+                case Instruction.SKP:
+                case Instruction.SKNP:
+                    target(work, leader, address + 2);
+                    target(work, leader, address + 4);
+                    if(address + 3 < end && memory[address + 2] == (byte) 0xF0 && memory[address + 3] == 0){
+                        target(work, leader, address + 6);  //XO-CHIP skips F000 NNNN as a whole
+                    }
+                    break;
+                case Instruction.LD_I_LONG:
+                    target(work, leader, address + 4);
+                    break;
+                default:
+                    if(BlockCompiler.isStraightLine(ins.op)){
+                        work.push(address + 2);
+                    } else {
+                        target(work, leader, address + 2);  //interpreted, the next block starts after it
+                    }
+            }
+        }
+    }
+
+    private static void target(Deque<Integer> work, boolean[] leader, int address){
+        if(address < END){
+            leader[address] = true;
+            work.push(address);
+        }
+    }
+
+    private static int[] block(int start, int[] opcodes, boolean[] reached, boolean[] leader){
+        int address = start;
+        int length = 0;
+        boolean timed = false;
+        while(true){
+            int op = Instruction.handler(opcodes[address]);
+            if(!isTranslated(op)){
+                break;
+            }
+            length++;
+            timed |= BlockCompiler.readsTimers(op);
+            if(!BlockCompiler.isStraightLine(op)){
+                break;  //jump, call, return or skip
+            }
+            address += 2;
+            if(address >= END || !reached[address] || leader[address]){
+                break;
+            }
+            if(length == BlockCompiler.MAX_BLOCK){
+                leader[address] = true;  //the rest is another block
+                break;
+            }
+        }
+        return new int[]{start, length, timed ? 1 : 0};
+    }
+
+    static boolean isTranslated(int op){
+        switch (op){
+            case Instruction.JP:
+            case Instruction.CALL:
+            case Instruction.RET:
+            case Instruction.JP_V0:
+            case Instruction.SE_NN:
+            case Instruction.SNE_NN:
+            case Instruction.SE_VY:
+            case Instruction.SNE_VY:
+            case Instruction.SKP:
+            case Instruction.SKNP:
+                return true;
+            default:
+                return BlockCompiler.isStraightLine(op);
+        }
+    }
+
+    //one method per block, run() dispatches on the block index it was constructed with. A Java 5 class file, as the
+    //dispatch branches and BytecodeWriter writes no stack maps
+    private static byte[] generate(String name, List<int[]> blocks, int[] opcodes){
+        BytecodeWriter writer = new BytecodeWriter(BytecodeWriter.JAVA_5, BytecodeWriter.ACC_PUBLIC | BytecodeWriter.ACC_FINAL
+                | BytecodeWriter.ACC_SUPER, name, "java/lang/Object", "com/company/CompiledBlock");
+        writer.field(BytecodeWriter.ACC_PRIVATE | BytecodeWriter.ACC_FINAL, "block", "I");
+
+        writer.method(BytecodeWriter.ACC_PUBLIC, "<init>", "(I)V")
+            .aload(0)
+            .invoke(BytecodeWriter.INVOKESPECIAL, "java/lang/Object", "<init>", "()V")
+            .aload(0).iload(1).field(BytecodeWriter.PUTFIELD, name, "block", "I")
+            .op(BytecodeWriter.RETURN)
+            .end(2, 2);
+
+        BytecodeWriter.Code run = writer.method(BytecodeWriter.ACC_PUBLIC, "run", BLOCK);
+        run.aload(0).field(BytecodeWriter.GETFIELD, name, "block", "I");
+        int dispatch = run.tableswitch(blocks.size());
+        for(int i = 0; i < blocks.size(); i++){
+            run.caseHere(dispatch, i)
+                .aload(0).aload(BlockCompiler.MEMORY_ARG).aload(BlockCompiler.V_ARG)
+                .invoke(BytecodeWriter.INVOKEVIRTUAL, name, "b" + i, BLOCK)
+                .op(BytecodeWriter.IRETURN);
+        }
+        run.defaultHere(dispatch).iconst(0).op(BytecodeWriter.IRETURN).end(3, 3);
+
+        StringBuilder table = new StringBuilder().append(FORMAT);
+        for(int i = 0; i < blocks.size(); i++){
+            int[] block = blocks.get(i);
+            table.append((char) block[0]).append((char) (block[1] | block[2] << 8));
+            generateBlock(writer.method(BytecodeWriter.ACC_FINAL, "b" + i, BLOCK), block[0], block[1], opcodes);
+        }
+        writer.method(BytecodeWriter.ACC_PUBLIC | BytecodeWriter.ACC_STATIC, "blocks", "()Ljava/lang/String;")
+            .ldc(table.toString()).op(BytecodeWriter.ARETURN).end(1, 0);
+        return writer.toByteArray();
+    }
+
+    private static void generateBlock(BytecodeWriter.Code code, int start, int length, int[] opcodes){
+        Instruction[] instructions = new Instruction[length];
+        int registers = 0;
+        for(int i = 0; i < length; i++){
+            instructions[i] = Instruction.decode(opcodes[start + i * 2]);
+            registers |= BlockCompiler.isStraightLine(instructions[i].op) ? BlockCompiler.registers(instructions[i])
+                    : tested(instructions[i]);
+        }
+        BlockCompiler.loadRegisters(code, registers);
+        for(int i = 0; i < length; i++){
+            if(BlockCompiler.mayFault(instructions[i].op)){
+                BlockCompiler.emitAt(code, registers, i);
+            }
+            if(i < length - 1){
+                BlockCompiler.emit(code, instructions[i]);
+            }
+        }
+        Instruction last = instructions[length - 1];
+        int address = start + (length - 1) * 2;
+        if(BlockCompiler.isStraightLine(last.op)){
+            BlockCompiler.emit(code, last);
+            BlockCompiler.storeRegisters(code, registers);
+            code.aload(BlockCompiler.MEMORY_ARG).iconst(length * 2).invoke(BytecodeWriter.INVOKEVIRTUAL, BlockCompiler.MEMORY, "advance", "(I)V");
+        } else {
+            emitBranch(code, last, address, registers);
+        }
+        code.iconst(length).op(BytecodeWriter.IRETURN).end(6, BlockCompiler.TEMP + 1);
+    }
+
+    private static int tested(Instruction ins){  //registers a jump, call, return or skip reads
+        switch (ins.op){
+            case Instruction.SE_NN:
+            case Instruction.SNE_NN:
+            case Instruction.SKP:
+            case Instruction.SKNP:
+                return 1 << ins.x;
+            case Instruction.SE_VY:
+            case Instruction.SNE_VY:
+                return 1 << ins.x | 1 << ins.y;
+            default:
+                return 0;  //BNNN reads V0 from V, after the registers are stored
+        }
+    }
+
+    //ends a block the way Memory.execute() does, skip conditions are computed without branches as 0 or 1 in TEMP
+    private static void emitBranch(BytecodeWriter.Code code, Instruction ins, int address, int registers){
+        int vx = BlockCompiler.FIRST_REGISTER + ins.x;
+        int vy = BlockCompiler.FIRST_REGISTER + ins.y;
+        int temp = BlockCompiler.TEMP;
+        switch (ins.op){
+            case Instruction.SE_NN:  //(vx ^ nn) - 1 is negative only when they are equal
+                code.iload(vx).iconst(ins.nn).op(BytecodeWriter.IXOR).iconst(1).op(BytecodeWriter.ISUB)
+                    .iconst(31).op(BytecodeWriter.IUSHR).istore(temp);
+                break;
+            case Instruction.SNE_NN:  //-(vx ^ nn) is negative only when they differ
+                code.iconst(0).iload(vx).iconst(ins.nn).op(BytecodeWriter.IXOR).op(BytecodeWriter.ISUB)
+                    .iconst(31).op(BytecodeWriter.IUSHR).istore(temp);
+                break;
+            case Instruction.SE_VY:
+                code.iload(vx).iload(vy).op(BytecodeWriter.IXOR).iconst(1).op(BytecodeWriter.ISUB)
+                    .iconst(31).op(BytecodeWriter.IUSHR).istore(temp);
+                break;
+            case Instruction.SNE_VY:
+                code.iconst(0).iload(vx).iload(vy).op(BytecodeWriter.IXOR).op(BytecodeWriter.ISUB)
+                    .iconst(31).op(BytecodeWriter.IUSHR).istore(temp);
+                break;
+            case Instruction.SKP:
+                code.aload(BlockCompiler.MEMORY_ARG).iload(vx)
+                    .invoke(BytecodeWriter.INVOKEVIRTUAL, BlockCompiler.MEMORY, "keyPressed", "(I)I").istore(temp);
+                break;
+            case Instruction.SKNP:
+                code.aload(BlockCompiler.MEMORY_ARG).iload(vx)
+                    .invoke(BytecodeWriter.INVOKEVIRTUAL, BlockCompiler.MEMORY, "keyPressed", "(I)I")
+                    .iconst(1).op(BytecodeWriter.IXOR).istore(temp);
+                break;
+            default:
+                break;
+        }
+        BlockCompiler.storeRegisters(code, registers);
+        code.aload(BlockCompiler.MEMORY_ARG);
+        switch (ins.op){
+            case Instruction.JP:
+                code.iconst(address).iconst(ins.nnn).invoke(BytecodeWriter.INVOKEVIRTUAL, BlockCompiler.MEMORY, "jump", "(II)V");
+                return;
+            case Instruction.CALL:
+                code.iconst(address).iconst(ins.nnn).invoke(BytecodeWriter.INVOKEVIRTUAL, BlockCompiler.MEMORY, "call", "(II)V");
+                return;
+            case Instruction.RET:
+                code.invoke(BytecodeWriter.INVOKEVIRTUAL, BlockCompiler.MEMORY, "ret", "()V");
+                return;
+            case Instruction.JP_V0:
+                code.iconst(ins.nnn).invoke(BytecodeWriter.INVOKEVIRTUAL, BlockCompiler.MEMORY, "jumpOffset", "(I)V");
+                return;
+            default:
+                code.iconst(address).iload(temp).invoke(BytecodeWriter.INVOKEVIRTUAL, BlockCompiler.MEMORY, "branch", "(II)V");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {  //translates every ROM of a directory, pack file or ROM file
+        if(args.length != 1 && !(args.length == 3 && args[1].equals("--out"))){
+            System.err.println("usage: RomTranslator <directory|pack|rom> [--out DIR]  (default DIR: aot)");
+            System.exit(2);
+        }
+        Path out = Paths.get(args.length == 3 ? args[2] : "aot");
+        Files.createDirectories(out);
+        for(RomLibrary.Rom rom : RomLibrary.open(Paths.get(args[0])).getRoms()){
+            byte[] bytes = translate(rom.getData());
+            Files.write(out.resolve(rom.getHash() + ".class"), bytes);
+            Translation translation = define(bytes);
+            System.out.println(rom.getHash() + " " + String.join(", ", rom.getNames()) + ": " + translation.getBlockCount()
+                    + " blocks, " + translation.getInstructionCount() + " instructions, " + bytes.length + " bytes");
+        }
+    }
+}
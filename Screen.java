@@ -1,46 +1,82 @@
-package com.company;
-
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.paint.Color;
-
-
-public class Screen extends Canvas {
-    private static final int width = 64;
-    private static final int height = 32;
-
-    private static int scale = 12;
-    private GraphicsContext gc;
-    private boolean[] gfx;
-
-
-    public Screen(){
-        super(width * scale, height * scale);
-        gc  = this.getGraphicsContext2D();
-        gfx = new boolean[64*32];
-
-        clear();
-    }
-
-    public void draw(int x, int y, Color color){
-        x = x * scale;
-        y = y * scale;
-
-
-        gc.setFill(color);
-        gc.fillRect(x, y, 12, 12);
-    }
-
-    public void clear(){
-        gc.setFill(Color.BLACK);
-        gc.fillRect(0,0,800,400);
-    }
-
-    public void setGfx(boolean[] gfx) {
-        this.gfx = gfx;
-    }
-
-    public boolean[] getGfx() {
-        return gfx;
-    }
-}
+package com.company;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+
+public class Screen extends Canvas {
+    private static final int width = FrameBuffer.WIDTH;
+    private static final int height = FrameBuffer.HEIGHT;
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+    private static final int[] PALETTE = {BLACK, WHITE, 0xFFAAAAAA, 0xFF555555};  //by XO-CHIP plane bits, plane 0 is white
+
+    private static int scale = 12;
+    private GraphicsContext gc;
+    private WritableImage image;    //copy of the display at its current resolution, scaled up onto the canvas
+    private PixelWriter pixels;
+    private int[] rowPixels;        //ARGB scratch buffer for one row
+    private long[] shown;           //display words currently in image, same layout as FrameBuffer.getRows()
+
+
+    public Screen(){
+        super(width * scale, height * scale);  //128x64 has the same aspect ratio and gets half the scale
+        gc  = this.getGraphicsContext2D();
+        gc.setImageSmoothing(false);  //keep pixels sharp when scaling up
+        resize(width, height, height);
+
+        clear();
+    }
+
+    private void resize(int w, int h, int words){
+        image = new WritableImage(w, h);
+        pixels = image.getPixelWriter();
+        rowPixels = new int[w];
+        shown = new long[words];
+    }
+
+    public void render(FrameBuffer frame){  //called once per pulse with a complete frame, copies only changed rows and blits once
+        int w = frame.getWidth();
+        int h = frame.getHeight();
+        long[] rows = frame.getRows();
+        boolean all = false;
+        if(w != (int) image.getWidth() || h != (int) image.getHeight() || rows.length != shown.length){  //resolution or variant switched
+            resize(w, h, rows.length);
+            all = true;
+        }
+        boolean changed = false;
+        for(int y = 0; y < h; y++){
+            if(rowChanged(frame, rows, y) || all){
+                for(int x = 0; x < w; x++){
+                    rowPixels[x] = PALETTE[frame.pixel(x, y)];
+                }
+                pixels.setPixels(0, y, w, 1, PixelFormat.getIntArgbInstance(), rowPixels, 0, w);
+                changed = true;
+            }
+        }
+        if(changed){
+            gc.drawImage(image, 0, 0, getWidth(), getHeight());
+        }
+    }
+
+    private boolean rowChanged(FrameBuffer frame, long[] rows, int y){  //compares and updates shown
+        boolean changed = false;
+        for(int plane = 0; plane < frame.getPlanes(); plane++){
+            for(int word = 0; word < (frame.isHires() ? 2 : 1); word++){
+                int i = FrameBuffer.index(plane, word, y);
+                changed |= rows[i] != shown[i];
+                shown[i] = rows[i];
+            }
+        }
+        return changed;
+    }
+
+    public void clear(){
+        gc.setFill(Color.BLACK);
+        gc.fillRect(0, 0, getWidth(), getHeight());
+    }
+}
@@ -0,0 +1,33 @@
+package com.company;
+
+public class SeededRandom implements RandomSource {  //the 48 bit LCG of java.util.Random, same bytes as nextInt(256) for a seed
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;
+
+    public SeededRandom(long seed){
+        setSeed(seed);
+    }
+
+    @Override
+    public int nextByte() {
+        state = (state * MULTIPLIER + 0xBL) & MASK;
+        return (int) (state >>> 40);  //top 8 bits, what nextInt(256) returns
+    }
+
+    @Override
+    public void setSeed(long seed) {  //same scrambling as java.util.Random.setSeed
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    public long getState() {
+        return state;
+    }
+
+    @Override
+    public void setState(long state) {
+        this.state = state & MASK;
+    }
+}
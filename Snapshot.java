@@ -0,0 +1,218 @@
+package com.company;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+//immutable machine state from Memory.snapshot() or Emulator.snapshot(). Memory pages are shared copy-on-write with the
+//machine and with other snapshots, so a snapshot costs the registers, the display and whatever pages change afterwards
+public final class Snapshot {
+    private static final int MAGIC = 0x43385353;  //"C8SS"
+    private static final int VERSION = 3;         //the only layout read back, earlier ones are rejected
+    private static final int ZERO_PAGE = 0;       //page kinds in the binary format
+    private static final int BYTE_PAGE = 1;
+
+    final Variant variant;
+    final byte[][] pages;
+    final byte[] V;
+    final int I;
+    final int pc;
+    final int[] stack;
+    final int sp;
+    final int delayTimer;
+    final int soundTimer;
+    final long random;
+    final long[] rows;      //FrameBuffer layout of variant
+    final boolean hires;
+    final int planes;       //selected, not present
+    final byte[] flags;
+    final byte[] pattern;
+    final int pitch;
+    final long cycles;      //Emulator clock, 0 for snapshots taken from Memory
+    final long timerBase;
+    final long timerTicks;
+
+    Snapshot(Variant variant, byte[][] pages, byte[] V, int I, int pc, int[] stack, int sp, int delayTimer, int soundTimer,
+             long random, long[] rows, boolean hires, int planes, byte[] flags, byte[] pattern, int pitch,
+             long cycles, long timerBase, long timerTicks){
+        this.variant = variant;
+        this.pages = pages;
+        this.V = V;
+        this.I = I;
+        this.pc = pc;
+        this.stack = stack;
+        this.sp = sp;
+        this.delayTimer = delayTimer;
+        this.soundTimer = soundTimer;
+        this.random = random;
+        this.rows = rows;
+        this.hires = hires;
+        this.planes = planes;
+        this.flags = flags;
+        this.pattern = pattern;
+        this.pitch = pitch;
+        this.cycles = cycles;
+        this.timerBase = timerBase;
+        this.timerTicks = timerTicks;
+    }
+
+    public int read(int address){
+        return pages[address >>> 8][address & 0xFF] & 0xFF;
+    }
+
+    public int getV(int register){
+        return V[register] & 0xFF;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public Variant getVariant() {
+        return variant;
+    }
+
+    public long[] getRows() {  //copy of the display
+        return rows.clone();
+    }
+
+    public boolean isHires() {
+        return hires;
+    }
+
+    public void write(DataOutput out) throws IOException {  //compact format: all-zero pages take one byte, others 257
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeByte(variant.ordinal());
+        out.writeInt(pc);
+        out.writeInt(I);
+        out.writeInt(sp);
+        out.writeInt(delayTimer);
+        out.writeInt(soundTimer);
+        out.write(V);
+        for(int value : stack){
+            out.writeInt(value);
+        }
+        out.writeLong(random);
+        out.writeLong(cycles);
+        out.writeLong(timerBase);
+        out.writeLong(timerTicks);
+        out.writeBoolean(hires);
+        out.writeByte(planes);
+        out.write(flags);
+        out.write(pattern);
+        out.writeByte(pitch);
+        out.writeInt(rows.length);
+        for(long row : rows){
+            out.writeLong(row);
+        }
+        out.writeInt(pages.length);
+        for(byte[] page : pages){
+            int kind = ZERO_PAGE;
+            for(byte value : page){
+                if(value != 0){
+                    kind = BYTE_PAGE;
+                    break;
+                }
+            }
+            out.writeByte(kind);
+            if(kind == BYTE_PAGE){
+                out.write(page);
+            }
+        }
+    }
+
+    public static Snapshot read(DataInput in) throws IOException {
+        if(in.readInt() != MAGIC){
+            throw new IOException("not a snapshot");
+        }
+        int version = in.readUnsignedShort();
+        if(version != VERSION){
+            throw new IOException("unsupported snapshot version " + version);
+        }
+        int ordinal = in.readUnsignedByte();
+        if(ordinal >= Variant.values().length){
+            throw new IOException("bad variant " + ordinal);
+        }
+        Variant variant = Variant.values()[ordinal];
+        int pc = in.readInt();
+        int I = in.readInt();
+        int sp = in.readInt();
+        if(pc < 0 || pc > variant.memorySize || I < 0 || I > variant.memorySize){
+            throw new IOException(String.format("bad pc 0x%x or I 0x%x for %s", pc, I, variant));
+        }
+        if(sp < 0 || sp > 16){
+            throw new IOException("bad stack depth " + sp);
+        }
+        int delayTimer = in.readInt();
+        int soundTimer = in.readInt();
+        byte[] V = new byte[16];
+        in.readFully(V);
+        int[] stack = new int[16];
+        for(int i = 0; i < stack.length; i++){
+            stack[i] = in.readInt();
+        }
+        long random = in.readLong();
+        long cycles = in.readLong();
+        long timerBase = in.readLong();
+        long timerTicks = in.readLong();
+        boolean hires = in.readBoolean();
+        int planes = in.readUnsignedByte();
+        byte[] flags = new byte[16];
+        in.readFully(flags);
+        byte[] pattern = new byte[16];
+        in.readFully(pattern);
+        int pitch = in.readUnsignedByte();
+        int rowCount = in.readInt();
+        int planeCount = variant.planes;
+        if(rowCount != (planeCount == 0 ? FrameBuffer.HEIGHT : planeCount * FrameBuffer.PLANE)){
+            throw new IOException("bad display size " + rowCount + " for " + variant);
+        }
+        long[] rows = new long[rowCount];
+        for(int i = 0; i < rows.length; i++){
+            rows[i] = in.readLong();
+        }
+        int pageCount = in.readInt();
+        if(pageCount != variant.memorySize / Memory.PAGE_SIZE){
+            throw new IOException("bad memory size " + pageCount + " pages for " + variant);
+        }
+        byte[][] pages = new byte[pageCount][];
+        for(int p = 0; p < pageCount; p++){
+            int kind = in.readUnsignedByte();
+            if(kind > BYTE_PAGE){
+                throw new IOException("bad page kind " + kind);
+            }
+            if(kind == ZERO_PAGE){
+                pages[p] = Memory.ZERO_PAGE;  //shared, memory copies it before writing
+                continue;
+            }
+            byte[] page = new byte[Memory.PAGE_SIZE];
+            in.readFully(page);
+            pages[p] = page;
+        }
+        return new Snapshot(variant, pages, V, I, pc, stack, sp, delayTimer, soundTimer, random, rows, hires, planes, flags,
+                pattern, pitch, cycles, timerBase, timerTicks);
+    }
+
+    public byte[] toByteArray(){
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            write(new DataOutputStream(bytes));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);  //in-memory streams do not fail
+        }
+    }
+
+    public static Snapshot fromByteArray(byte[] bytes) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
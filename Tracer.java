@@ -0,0 +1,34 @@
+package com.company;
+
+public interface Tracer {  //opt-in debug hook, Memory only calls it when the trace level asks for it
+    int OFF = 0;           //nothing is reported
+    int ERRORS = 1;        //unknown opcodes, other faults always throw CpuFault
+    int INSTRUCTIONS = 2;  //every executed instruction, slow
+
+    Tracer STDOUT = new Tracer() {
+        @Override
+        public void instruction(int pc, int opcode) {
+            System.out.println("0x" + String.format("%x", opcode));
+        }
+
+        @Override
+        public void unknownOpcode(int pc, int opcode) {
+            System.out.println("unknown opcode: " + opcode);
+        }
+    };
+
+    Tracer FAULTS = new Tracer() {  //with ERRORS, unknown opcodes throw CpuFault instead of being skipped
+        @Override
+        public void instruction(int pc, int opcode) {
+        }
+
+        @Override
+        public void unknownOpcode(int pc, int opcode) {
+            throw new CpuFault(CpuFault.Kind.UNKNOWN_OPCODE, pc, opcode, -1);
+        }
+    };
+
+    void instruction(int pc, int opcode);
+
+    void unknownOpcode(int pc, int opcode);
+}
@@ -0,0 +1,25 @@
+package com.company;
+
+//instruction set a machine runs, see Memory.setVariant(). Extended sets add to CHIP-8, the shared instructions behave
+//the same in all three
+public enum Variant {
+    CHIP8(4096, 0),     //64x32, one plane
+    SCHIP(4096, 1),     //SUPER-CHIP 1.1: 00FF/00FE 128x64 hi-res, 00CN/00FB/00FC scrolling, DXY0 16x16 sprites, FX30 big font, FX75/FX85 flags
+    XOCHIP(65536, 2);   //SCHIP plus 64 KB memory, FN01 bitplanes, 00DN, 5XY2/5XY3, F000 NNNN, F002/FX3A audio pattern and pitch
+
+    final int memorySize;
+    final int planes;       //display planes, 0 keeps the plain CHIP-8 layout, see FrameBuffer
+
+    Variant(int memorySize, int planes){
+        this.memorySize = memorySize;
+        this.planes = planes;
+    }
+
+    public int getMemorySize() {
+        return memorySize;
+    }
+
+    public static Variant parse(String name){  //chip8, schip, xochip, case and dashes ignored
+        return valueOf(name.toUpperCase().replace("-", ""));
+    }
+}
@@ -0,0 +1,40 @@
+package com.company.benchmarks;
+
+import com.company.Buzzer;
+import com.company.Emulator;
+
+import java.lang.management.ManagementFactory;
+
+public class AllocationBenchmark {  //measures heap bytes allocated per executed instruction, exits with 1 if it is not zero
+    private static final long WARMUP_CYCLES = 5_000_000;
+    private static final long MEASURED_CYCLES = 20_000_000;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        Emulator emulator = new Emulator();
+        emulator.setThrottled(false);
+        emulator.setBuzzer(Buzzer.nullSink());  //as in Headless
+        emulator.getKeypad().setKey(7, true);  //keeps FX0A from blocking
+        emulator.getMemory().loadProgram(Programs.assemble(Programs.MIXED));
+
+        emulator.runCycles(WARMUP_CYCLES);
+
+        long start = System.nanoTime();  //taken outside the measured window, the first nanoTime call allocates
+        long before = threads.getThreadAllocatedBytes(thread);
+        emulator.runCycles(MEASURED_CYCLES);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        long elapsed = System.nanoTime() - start;
+
+        double bytesPerOp = (double) allocated / MEASURED_CYCLES;
+        System.out.println("cycles:     " + MEASURED_CYCLES);
+        System.out.println("allocated:  " + allocated + " bytes");
+        System.out.println("bytes/op:   " + bytesPerOp);
+        System.out.println("ns/op:      " + (double) elapsed / MEASURED_CYCLES);
+
+        if(allocated > 0){
+            System.exit(1);
+        }
+    }
+}
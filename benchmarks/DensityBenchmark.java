@@ -0,0 +1,100 @@
+package com.company.benchmarks;
+
+import com.company.Emulator;
+import com.company.RomLibrary;
+import com.company.Tracer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+//many resident machines run round-robin in short slices, so throughput depends on how much of their state fits in
+//cache. main() prints the heap each machine retains
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DensityBenchmark {
+    private static final int CYCLES = 16;  //per machine per round, about one frame at 700 instructions/s
+
+    @Param({"1024", "16384"})
+    public int machines;
+
+    @Param({"memory", "mixed"})
+    public String workload;
+
+    @Param({"program", "image"})
+    public String load;  //loadProgram() per machine, or one shared RomLibrary image
+
+    private Emulator[] emulators;
+
+    @Setup
+    public void setup(){
+        emulators = create(machines, Programs.assemble(InterpreterBenchmark.program(workload)), load.equals("image"));
+    }
+
+    static Emulator[] create(int machines, byte[] program, boolean shared){
+        RomLibrary.Image image = shared ? new RomLibrary.Image(ByteBuffer.wrap(program)) : null;
+        Emulator[] emulators = new Emulator[machines];
+        for(int m = 0; m < machines; m++){
+            Emulator emulator = new Emulator();
+            emulator.setThrottled(false);
+            emulator.getMemory().setTracer(Tracer.STDOUT, Tracer.OFF);
+            emulator.getMemory().setSeed(m);
+            emulator.getKeypad().setKey(7, true);  //MIXED waits on FX0A
+            if(shared){
+                emulator.getMemory().loadImage(image);
+            } else {
+                emulator.getMemory().loadProgram(program);
+            }
+            emulators[m] = emulator;
+        }
+        return emulators;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public long instructions(){  //per machine, multiply by machines for the total
+        long total = 0;
+        for(Emulator emulator : emulators){
+            emulator.runCycles(CYCLES);
+            total += emulator.getCycles();
+        }
+        return total;
+    }
+
+    public static void main(String[] args){
+        int machines = 16384;
+        byte[] program = Programs.assemble(Programs.MEMORY);
+        for(boolean shared : new boolean[]{false, true}){
+            long before = usedHeap();
+            Emulator[] emulators = create(machines, program, shared);
+            for(Emulator emulator : emulators){
+                emulator.runCycles(1000);  //every machine has written its scratch page
+            }
+            long used = usedHeap() - before;
+            System.out.println((shared ? "image:   " : "program: ") + used / machines + " bytes/machine");
+        }
+    }
+
+    private static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++){
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,63 @@
+package com.company.benchmarks;
+
+import com.company.Emulator;
+import com.company.Tracer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {  //instructions per second of fetch/decode/execute on synthetic loops
+    private static final int CYCLES = 10_000;
+
+    @Param({"alu", "draw", "memory", "mixed"})
+    public String workload;
+
+    @Param({"false", "true"})
+    public boolean jit;
+
+    private Emulator emulator;
+
+    @Setup
+    public void setup(){
+        emulator = new Emulator();
+        emulator.setThrottled(false);
+        emulator.setJit(jit);
+        emulator.getMemory().setTracer(Tracer.STDOUT, Tracer.OFF);
+        emulator.getKeypad().setKey(7, true);  //MIXED waits on FX0A
+        emulator.getMemory().loadProgram(Programs.assemble(program(workload)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public long instructions(){
+        emulator.runCycles(CYCLES);
+        return emulator.getCycles();
+    }
+
+    static int[] program(String workload){
+        switch (workload){
+            case "alu": return Programs.ALU;
+            case "draw": return Programs.DRAW;
+            case "memory": return Programs.MEMORY;
+            case "mixed": return Programs.MIXED;
+            default: throw new IllegalArgumentException("unknown workload: " + workload);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.company.benchmarks;
+
+import com.company.Emulator;
+import com.company.LockstepEngine;
+import com.company.Tracer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class LockstepBenchmark {  //total instructions per second of many machines on one thread, separate Emulators vs LockstepEngine
+    private static final int MACHINES = 1024;
+    private static final int CYCLES = 100;
+
+    @Param({"alu", "mixed"})
+    public String workload;
+
+    @Param({"separate", "lockstep"})
+    public String engine;
+
+    private Emulator[] emulators;
+    private LockstepEngine lockstep;
+
+    @Setup
+    public void setup(){
+        byte[] program = Programs.assemble(InterpreterBenchmark.program(workload));
+        if(engine.equals("lockstep")){
+            lockstep = new LockstepEngine(program, MACHINES, 0);
+            for(int m = 0; m < MACHINES; m++){
+                lockstep.setKey(m, 7, true);  //MIXED waits on FX0A
+            }
+            return;
+        }
+        emulators = new Emulator[MACHINES];
+        for(int m = 0; m < MACHINES; m++){
+            Emulator emulator = new Emulator();
+            emulator.setThrottled(false);
+            emulator.getMemory().setTracer(Tracer.STDOUT, Tracer.OFF);
+            emulator.getMemory().setSeed(m);
+            emulator.getKeypad().setKey(7, true);
+            emulator.getMemory().loadProgram(program);
+            emulators[m] = emulator;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MACHINES * CYCLES)
+    public long instructions(){
+        if(lockstep != null){
+            lockstep.run(CYCLES);
+            return lockstep.getCycles();
+        }
+        long total = 0;
+        for(Emulator emulator : emulators){
+            emulator.runCycles(CYCLES);
+            total += emulator.getCycles();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,60 @@
+package com.company.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class Programs {  //synthetic workloads and bundled ROM fixtures shared by the benchmarks
+
+    //7XNN and 8XY1-8XYE in a tight loop, no memory or display access
+    public static final int[] ALU = {
+        0x6001, 0x6102, 0x6203, 0x6304,                                  //0x200
+        0x7001, 0x7105, 0x8011, 0x8122, 0x8233, 0x8014, 0x8125, 0x8016,  //0x208 loop
+        0x801E, 0x8237, 0x8304, 0x7203, 0x1208                           //0x218
+    };
+
+    //DXYN with font sprites and a screen clear every 16 draws
+    public static final int[] DRAW = {
+        0x6000, 0x6100, 0x6210,                                          //0x200
+        0x00E0, 0xA000, 0xD015, 0x7008, 0xA00A, 0xD01F, 0x7105, 0xA014,  //0x206 loop
+        0xD01F, 0x7003, 0x72FF, 0x3200, 0x120A, 0x6210, 0x1206           //0x216
+    };
+
+    //FX33/FX55/FX65 round trips through a scratch area at 0x300
+    public static final int[] MEMORY = {
+        0x6012, 0x6134, 0x6256, 0x6378,                                  //0x200
+        0xA300, 0xF333, 0xF355, 0xF365, 0x7001, 0xA310, 0xF033, 0xF265,  //0x208 loop
+        0xF355, 0x7102, 0x1208                                           //0x218
+    };
+
+    //touches every opcode family that used to allocate or print: 00E0, DXYN, CXNN, EX9E/EXA1, FX0A, FX33/55/65, 2NNN/00EE
+    public static final int[] MIXED = {
+        0x6005, 0x610A, 0xA300, 0x00E0, 0xD015, 0x8014, 0x8015, 0x8016,  //0x200
+        0x8011, 0x8012, 0x8013, 0xC3FF, 0x6207, 0xE29E, 0x6000, 0xE2A1,  //0x210
+        0x6000, 0xF20A, 0xF233, 0xF255, 0xF265, 0xF215, 0xF207, 0xF21E,  //0x220
+        0xA300, 0x2246, 0x3000, 0x6F00, 0x4000, 0x6F00, 0x5010, 0x6F00,  //0x230
+        0x9010, 0x6F00, 0x1200, 0x00EE                                   //0x240
+    };
+
+    public static final String[] ROMS = {"maze.ch8", "counter.ch8", "bounce.ch8"};  //files in benchmarks/roms
+
+    private Programs(){
+    }
+
+    public static byte[] assemble(int[] opcodes){
+        byte[] program = new byte[opcodes.length * 2];
+        for(int i = 0; i < opcodes.length; i++){
+            program[i * 2] = (byte) (opcodes[i] >>> 8);
+            program[i * 2 + 1] = (byte) opcodes[i];
+        }
+        return program;
+    }
+
+    public static byte[] rom(String name) throws IOException {  //bundled fixture from the classpath
+        try (InputStream in = Programs.class.getResourceAsStream("/roms/" + name)) {
+            if(in == null){
+                throw new IOException("missing ROM fixture: " + name);
+            }
+            return in.readAllBytes();
+        }
+    }
+}
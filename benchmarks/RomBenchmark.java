@@ -0,0 +1,66 @@
+package com.company.benchmarks;
+
+import com.company.Emulator;
+import com.company.RomTranslator;
+import com.company.Tracer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RomBenchmark {  //full run of a bundled ROM from power-on to a fixed cycle count
+    private static final long CYCLES = 100_000;
+
+    @Param({"maze.ch8", "counter.ch8", "bounce.ch8"})
+    public String rom;
+
+    @Param({"false", "true"})
+    public boolean jit;
+
+    @Param({"false", "true"})
+    public boolean aot;  //RomTranslator blocks from the first instruction, with jit the JIT covers what they miss
+
+    @Param({"false", "true"})
+    public boolean idle;  //idle-loop fast-forward, most of maze.ch8's cycles are skipped with it, false measures execution
+
+    private byte[] program;
+    private RomTranslator.Translation translation;
+
+    @Setup
+    public void setup() throws IOException {
+        program = Programs.rom(rom);
+        translation = aot ? RomTranslator.define(RomTranslator.translate(ByteBuffer.wrap(program))) : null;
+    }
+
+    @Benchmark
+    public Emulator run(){
+        Emulator emulator = new Emulator();
+        emulator.setThrottled(false);
+        emulator.setJit(jit);
+        emulator.getMemory().setTracer(Tracer.STDOUT, Tracer.OFF);
+        emulator.getMemory().setIdleDetection(idle);
+        emulator.getMemory().loadProgram(program);
+        if(translation != null){
+            emulator.setTranslation(translation);
+        }
+        emulator.runCycles(CYCLES);
+        return emulator;
+    }
+}
@@ -0,0 +1,58 @@
+package com.company.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//launch to exit of a one instruction Headless run, which bounds startup to the first instruction, in fresh JVMs with
+//and without the AppCDS archive. Uses only the JDK, so the build runs it as a source file:
+//java benchmarks/StartupBenchmark.java <headless jar> <archive> <rom> [runs]
+public class StartupBenchmark {
+    private static final int WARMUP_RUNS = 3;  //page cache, not the JVM
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 3){
+            System.err.println("usage: StartupBenchmark <headless jar> <archive> <rom> [runs]");
+            System.exit(2);
+        }
+        String jar = args[0];
+        Path archive = Paths.get(args[1]);
+        String rom = args[2];
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        report("jar", runs, jar, null, rom);
+        if(Files.exists(archive)){
+            report("jar + AppCDS", runs, jar, archive.toString(), rom);
+        } else {
+            System.out.println(archive + " not found, run mvn -P headless package");
+        }
+    }
+
+    private static void report(String name, int runs, String jar, String archive, String rom) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if(archive != null){
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.addAll(Arrays.asList("-jar", jar, rom, "--cycles", "1", "--unthrottled"));
+
+        long[] millis = new long[runs];
+        for(int i = -WARMUP_RUNS; i < runs; i++){
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            if(process.waitFor() != 0){
+                throw new IllegalStateException(String.join(" ", command) + " failed");
+            }
+            if(i >= 0){
+                millis[i] = (System.nanoTime() - start) / 1_000_000;
+            }
+        }
+        Arrays.sort(millis);
+        System.out.println(String.format("%-14s median %d ms, min %d ms, max %d ms over %d runs", name, millis[runs / 2], millis[0], millis[runs - 1], runs));
+    }
+}